@@ -0,0 +1,85 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import model.ClientGameDriver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Client side map of the explored maze: walls, moves and visited cells.
+ * The player walks a square spiral, so the map keeps growing.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ClientGameDriverBenchmark {
+    private static final char[] directions = {'r', 'd', 'l', 'u'};
+
+    @Param({"1000", "100000"})
+    private int exploredCells;
+
+    private ClientGameDriver driver;
+    private int dest;
+    private int leg = 1;
+    private int stepsLeft = 1;
+    private int turns;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        driver = new ClientGameDriver();
+        dest = 0;
+        leg = 1;
+        stepsLeft = 1;
+        turns = 0;
+        for (int i = 0; i < exploredCells; i++) {
+            step();
+        }
+    }
+
+    /**
+     * Walls around the cell and a move, as done for every answered move
+     */
+    @Benchmark
+    public void addWallAndMove() {
+        step();
+    }
+
+    @Benchmark
+    public void isCellVisited(Blackhole blackhole) {
+        int r = driver.getCurrentRow();
+        int c = driver.getCurrentCol();
+        for (int dr = -2; dr <= 2; dr++) {
+            for (int dc = -2; dc <= 2; dc++) {
+                blackhole.consume(driver.isCellVisited(r + dr, c + dc));
+            }
+        }
+    }
+
+    private void step() {
+        char d = directions[dest];
+        driver.addWall(directions[(dest + 1) & 3], true);
+        driver.addWall(directions[(dest + 3) & 3], true);
+        driver.addWall(d, false);
+        driver.move(d);
+        if (--stepsLeft == 0) {
+            dest = (dest + 1) & 3;
+            if ((++turns & 1) == 0) leg++;
+            stepsLeft = leg;
+        }
+    }
+}
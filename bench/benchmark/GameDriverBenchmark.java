@@ -0,0 +1,74 @@
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import controller.ServerController;
+import controller.ServerListener;
+import model.GameDriver;
+import model.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Server side handling of "move" and "moves" requests.
+ * A new game is started whenever the player finds the exit.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GameDriverBenchmark {
+    private static final String[] moves = {"move up", "move right", "move down", "move left"};
+
+    private ServerController controller = new ServerController(new NullListener());
+    private GameDriver driver;
+    private int step;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        driver = new GameDriver(controller);
+    }
+
+    @Benchmark
+    public Message move() {
+        Message answer = driver.getAnswer(new Message(Message.Type.REQUEST, moves[step++ & 3], step));
+        restartAfterExit(answer);
+        return answer;
+    }
+
+    @Benchmark
+    public Message moveBatch() {
+        Message answer = driver.getAnswer(new Message(Message.Type.REQUEST, "moves urdlurdl", step++));
+        restartAfterExit(answer);
+        return answer;
+    }
+
+    private void restartAfterExit(Message answer) {
+        String data = answer.getData();
+        if (data.endsWith("=exit") || data.endsWith("=game_stopped")) {
+            driver = new GameDriver(controller);
+        }
+    }
+
+    private static class NullListener implements ServerListener {
+        @Override
+        public void appendLog(String text) {
+        }
+
+        @Override
+        public void refreshClients(List<String> clients, List<String> statuses) {
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import model.DistanceField;
+import model.EllerMazeGenerator;
+import model.Maze;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Maze construction (generateMaze runs in the constructor), exits, wall lookups and distances to the exit
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MazeBenchmark {
+    @Param({"7", "30", "100", "1000"})
+    private int size;
+
+    private Maze maze;
+    private Random random = new Random();
+    private int cell;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        maze = new Maze(size, size);
+    }
+
+    @Benchmark
+    public Maze construct() {
+        return new Maze(size, size);
+    }
+
+    @Benchmark
+    public Maze constructParallel() {
+        return new Maze(size, size, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Eller's algorithm, rows are consumed and dropped
+     */
+    @Benchmark
+    public void streamRows(Blackhole blackhole) throws IOException {
+        new EllerMazeGenerator(size, random).generate(size, new EllerMazeGenerator.RowSink() {
+            @Override
+            public void row(long r, long[] hWalls, long[] vWalls) {
+                blackhole.consume(hWalls);
+            }
+
+            @Override
+            public void end(long[] hWalls) {
+                blackhole.consume(hWalls);
+            }
+        });
+    }
+
+    @Benchmark
+    public DistanceField distances() {
+        return new DistanceField(maze, null);
+    }
+
+    @Benchmark
+    public DistanceField distancesParallel() {
+        return new DistanceField(maze, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * One hint per call, walking over all cells
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int hint() {
+        int n = cell;
+        cell = (n + 1) % (size * size);
+        return maze.getDistances().getHint(n / size, n % size);
+    }
+
+    /**
+     * One wall per call, walking over all cells and directions
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean isWall() {
+        int n = cell;
+        cell = (n + 1) % (size * size * 4);
+        int index = n >>> 2;
+        return maze.isWall(index / size, index % size, n & 3);
+    }
+
+    /**
+     * Every wall of the maze
+     */
+    @Benchmark
+    public void isWallScan(Blackhole blackhole) {
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                for (int dest = 0; dest < 4; dest++) {
+                    blackhole.consume(maze.isWall(r, c, dest));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import model.Message;
+import model.MessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Message round trips: Java serialization (as sent by the object protocol,
+ * reset after every message) against MessageCodec frames
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageBenchmark {
+    @Param({"move up", "move up=yes", "moves urdlurdl", "Request not recognized: jump"})
+    private String data;
+
+    private Message message;
+    private ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+
+    @Setup
+    public void setUp() {
+        message = new Message(Message.Type.REQUEST, data, 12345);
+    }
+
+    @Benchmark
+    public Message serializationRoundTrip() throws IOException, ClassNotFoundException {
+        bytes.reset();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.reset();
+        out.writeObject(message);
+        out.flush();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return (Message) in.readObject();
+    }
+
+    @Benchmark
+    public Message codecRoundTrip() throws IOException {
+        byte[] frame = MessageCodec.encode(message);
+        return MessageCodec.read(new DataInputStream(new ByteArrayInputStream(frame)));
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return MessageCodec.encode(message);
+    }
+}
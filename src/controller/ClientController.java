@@ -2,16 +2,26 @@ package controller;
 
 import model.ClientGameDriver;
 import javafx.application.Platform;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
+import model.GameDriver;
 import model.PointRC;
 import model.Message;
+import model.MessageCodec;
 import view.ClientFrame;
 
 /**
@@ -28,6 +38,9 @@ public class ClientController {
     private static final String hostName = "localhost";
     private ObjectOutputStream requestStream;
     private ObjectInputStream answerStream;
+    private DataInputStream binaryInput;    //set when the server agreed on MessageCodec
+    private OutputStream binaryOutput;
+    private final ReentrantLock sendLock = new ReentrantLock(); //requests come from the FX thread and the reader thread
     private Thread clientThread;
 
     private int nScreenRows;        //maze size
@@ -36,6 +49,12 @@ public class ClientController {
     private int addCol; //to get the real coordinates
 
     private boolean ballOut; //When the ball is out, the game is over
+    private final Object mapLock = new Object();    //guards the map and addRow, addCol: changed by the reader thread, drawn on the FX thread
+
+    private static final int MAX_PIPELINE = 4;  //requests sent without waiting for answers
+    private final AtomicInteger lastId = new AtomicInteger();   //message ids, per connection
+    private final ConcurrentHashMap<Integer, CompletableFuture<Message>> pending = new ConcurrentHashMap<>();
+    private final StringBuilder queuedMoves = new StringBuilder(); //moves waiting for a free pipeline slot
 
     public ClientController(ClientFrame frame, int nScreenRows, int nScreenCols) {
         this.frame = frame;
@@ -50,11 +69,16 @@ public class ClientController {
             return false;
         }
 
-        addRow = 0;
-        addCol = 0;
-        gameDriver = new ClientGameDriver();
+        synchronized (mapLock) {
+            addRow = 0;
+            addCol = 0;
+            gameDriver = new ClientGameDriver();
+        }
+        synchronized (queuedMoves) {
+            queuedMoves.setLength(0);
+        }
 
-        frame.redrawMaze();
+        frame.invalidateMaze();
 
         clientThread = new Thread(new Runnable() {
             @Override
@@ -62,8 +86,7 @@ public class ClientController {
                 try {
                     boolean end = false;
                     while (!end) {
-                        frame.appendLog("Waiting for input.");
-                        Message answer = (Message) answerStream.readObject();
+                        Message answer = readMessage();
                         frame.appendLog("message received: " + answer);
                         if (answer.getType() == Message.Type.END) {
                             end = true;
@@ -71,42 +94,52 @@ public class ClientController {
                         if (answer.getType() == Message.Type.ANSWER) {
                            react(answer);
                         }
-                        try {
-                            Thread.sleep(300);
-                        } catch (InterruptedException ex) {
-                            Thread.currentThread().interrupt();
-                            //System.out.println("Client controller thread interrupted");
-                            break;
-                        }
                     }
                 } catch (Exception ex) {
                     frame.appendLog("Error reading socket.");
                     //ex.printStackTrace();
                 }
+                failPending();
                 stopClient();
             }
         });
+        clientThread.setName("ClientController-reader");
         clientThread.start();
 
         return true;
     }
 
     private boolean initializeGame() {
+        lastId.set(0);
+        failPending();
         try {
             InetAddress ina = InetAddress.getByName(hostName);
             try {
                 socket = new Socket(ina, frame.getPort());
+                socket.setTcpNoDelay(true);
+                binaryInput = null;
+                binaryOutput = null;
                 try {
                     requestStream = new ObjectOutputStream(socket.getOutputStream());
                     requestStream.flush();
                     answerStream = new ObjectInputStream(socket.getInputStream());
 
-                    sendMessage(new Message(Message.Type.START, frame.getName()));
+                    // no reset after START: its mark would be sent ahead of the first binary frame
+                    requestStream.writeObject(new Message(Message.Type.START, frame.getName(), lastId.incrementAndGet())
+                            .withProtocol(MessageCodec.PROTOCOL));
+                    requestStream.flush();
                     frame.appendLog("client: start message sent, waiting for answer.");
 
                     Message answer = (Message) answerStream.readObject();
                     if (answer.getType() == Message.Type.ANSWER) {
                         frame.appendLog("answer: " + answer);
+                        if (MessageCodec.PROTOCOL.equals(answer.getProtocol())) {
+                            binaryInput = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                            binaryOutput = new BufferedOutputStream(socket.getOutputStream());
+                            frame.appendLog("Binary protocol accepted.");
+                        } else {
+                            requestStream.reset();
+                        }
                     } else {
                         if (answer.getType() == Message.Type.END) {
                             frame.appendLog("Server disconnected.");
@@ -131,46 +164,187 @@ public class ClientController {
     }
 
     public void react(Message message) {
-        String comment;
         if (message.getType() == Message.Type.ANSWER) {
             String command = message.getData();
-            if (command.startsWith("move ")) {
-                char dest = command.charAt(5); //u, d, l, r
-                if (command.endsWith("exit")) {
-                    comment = "Congratulations! You have found the exit!";
-                    gameDriver.addWall(dest, false);
+            String comment = null;
+            if (command.startsWith("moves error=")) {
+                comment = "Moves not accepted: " + command.substring(12);
+            } else if (command.startsWith("moves")) {    //ex: moves u=yes r=no
+                for (String item : command.substring(5).trim().split(" ")) {
+                    if (item.length() > 2 && item.charAt(1) == '=') {
+                        comment = applyMove(item.charAt(0), item.substring(2), "move " + item.charAt(0));
+                    }
+                }
+            } else if (command.startsWith("move ")) {   //ex: move up=yes
+                comment = applyMove(command.charAt(5), command.substring(command.indexOf('=') + 1),
+                        command.substring(0, 7));
+            } else if (command.startsWith("hint ")) {   //ex: hint left
+                comment = command.equals("hint none") ? "No hint: the exit cannot be reached from here"
+                        : "Hint: go " + command.substring(5);
+            }
+            if (comment != null) {
+                setComment(comment);
+            }
+            answered(message);
+        }
+    }
+
+    /**
+     * Applies the server's answer to one move. The frame is only told what changed,
+     * it draws the changes with its next pulse.
+     *
+     * @param dest      u, d, l, r
+     * @param result    yes, no, exit, game_stopped
+     * @param command   move name for the comment
+     * @return          comment
+     */
+    private String applyMove(char dest, String result, String command) {
+        synchronized (mapLock) {
+            return applyMoveLocked(dest, result, command);
+        }
+    }
+
+    private String applyMoveLocked(char dest, String result, String command) {
+        String comment;
+        if (result.equals("exit")) {
+            comment = "Congratulations! You have found the exit!";
+            addWall(dest, false);
+            gameDriver.move(dest);
+            ballOut = true;
+            updateMaze();
+        } else {
+            if (result.equals("game_stopped")) {
+                comment = "You are out already.";
+            } else {
+                if (result.equals("yes")) {
+                    addWall(dest, false);
                     gameDriver.move(dest);
-                    ballOut = true;
+                    comment = command + ": moved";
                     updateMaze();
                 } else {
-                    if (command.endsWith("stopped")) {
-                        comment = "You are out already.";
+                    if (result.equals("no")) {
+                        addWall(dest, true);
+                        comment = command + ": wall";
+                        updateMaze();
                     } else {
-                        if (command.endsWith("yes")) {
-                            gameDriver.addWall(dest, false);
-                            gameDriver.move(dest);
-                            comment = command.substring(0, 7) + ": moved";
-                            updateMaze();
-                        } else {
-                            if (command.endsWith("no")) {
-                                gameDriver.addWall(dest, true);
-                                //System.out.println("Game no move: " + dest);
-                                comment = command.substring(0, 7) + ": wall";
-                                updateMaze();
-                            } else {
-                                comment = "Unrecognized command: " + command;
-                            }
-                        }
+                        comment = "Unrecognized command: " + command + "=" + result;
                     }
                 }
-                setComment(comment);
             }
         }
+        return comment;
+    }
+
+    /**
+     * Sends a request
+     *
+     * @param data  request text, ex: "move up"
+     * @return      future completed with the answer, or exceptionally if the connection is lost
+     */
+    public CompletableFuture<Message> request(String data) {
+        Message request = new Message(Message.Type.REQUEST, data, lastId.incrementAndGet());
+        CompletableFuture<Message> answer = new CompletableFuture<>();
+        pending.put(request.getId(), answer);
+        if (!sendMessage(request)) {
+            pending.remove(request.getId());
+            answer.completeExceptionally(new IOException("Error sending " + request));
+        }
+        return answer;
+    }
+
+    /**
+     * Requests a move. Up to MAX_PIPELINE requests are sent without waiting for answers,
+     * further moves are collected and sent as "moves" requests of up to GameDriver.MAX_BATCH moves when answers arrive.
+     *
+     * @param dest  u, d, l, r
+     */
+    public void requestMove(char dest) {
+        synchronized (queuedMoves) {    //keeps moves in order with the collected ones
+            if (pending.size() >= MAX_PIPELINE || queuedMoves.length() > 0) {
+                queuedMoves.append(dest);
+                return;
+            }
+            request("move " + directionName(dest));
+        }
+    }
+
+    /**
+     * Asks the server for the best next move, the answer is shown as the comment
+     */
+    public void requestHint() {
+        request("hint");
     }
 
+    /**
+     * Sends a batch of moves
+     *
+     * @param directions    ex: "uurd", at most GameDriver.MAX_BATCH
+     * @return              future completed with the answer
+     */
+    public CompletableFuture<Message> requestMoves(String directions) {
+        return request("moves " + directions);
+    }
+
+    /**
+     * Completes the request's future and sends moves collected meanwhile.
+     * Called on the reader thread after the answer was applied.
+     *
+     * @param answer    answer with the request's id
+     */
+    private void answered(Message answer) {
+        CompletableFuture<Message> future = pending.remove(answer.getId());
+        synchronized (queuedMoves) {
+            if (queuedMoves.length() > 0 && pending.size() < MAX_PIPELINE) {
+                int n = Math.min(queuedMoves.length(), GameDriver.MAX_BATCH);   //the rest waits for the next answer
+                requestMoves(queuedMoves.substring(0, n));
+                queuedMoves.delete(0, n);
+            }
+        }
+        if (future != null) {
+            future.complete(answer);
+        }
+    }
+
+    /**
+     * Fails requests that will not be answered
+     */
+    private void failPending() {
+        for (Integer id : pending.keySet()) {
+            CompletableFuture<Message> future = pending.remove(id);
+            if (future != null) {
+                future.completeExceptionally(new IOException("Connection closed"));
+            }
+        }
+    }
+
+    private static String directionName(char dest) {
+        if (dest == 'u') return "up";
+        if (dest == 'd') return "down";
+        if (dest == 'l') return "left";
+        return "right";
+    }
+
+    /**
+     * Adds a wall of the current cell to the map and marks it for redrawing
+     */
+    private void addWall(char dest, boolean isWall) {
+        gameDriver.addWall(dest, isWall);
+        int r = gameDriver.getCurrentRow();
+        int c = gameDriver.getCurrentCol();
+        if (dest == 'd') r++;   //the wall above the cell below
+        if (dest == 'r') c++;   //the wall left of the next cell
+        frame.invalidateCell(r, c);
+    }
+
+    /**
+     * Marks the current cell for redrawing; scrolls the screen to keep the ball on it,
+     * the whole screen is redrawn then
+     */
     private void updateMaze() {
         int screenRow = gameDriver.getCurrentRow() + addRow;
         int screenCol = gameDriver.getCurrentCol() + addCol;
+        int oldAddRow = addRow;
+        int oldAddCol = addCol;
         if (screenRow < 0) {
             addRow -= screenRow;
         }
@@ -184,23 +358,52 @@ public class ClientController {
             addCol -= screenCol - nScreenCols + 1;
         }
         //System.out.println("add r, c " + addRow + " " +  addCol);
-        frame.redrawMaze();
+        frame.invalidateCell(gameDriver.getCurrentRow(), gameDriver.getCurrentCol());
+        if (addRow != oldAddRow || addCol != oldAddCol) {
+            frame.invalidateMaze();
+        }
     }
 
-    public void sendMessage(Message message) {
+    private Message readMessage() throws IOException, ClassNotFoundException {
+        if (binaryInput != null) {
+            return MessageCodec.read(binaryInput);
+        }
+        return (Message) answerStream.readObject();
+    }
+
+    /**
+     * Sends message to the server. May be called from any thread.
+     *
+     * @param message
+     * @return  true if sent
+     */
+    public boolean sendMessage(Message message) {
+        sendLock.lock();
         try {
-            requestStream.writeObject(message);
-            requestStream.flush();
-            requestStream.reset();
-            frame.appendLog(message + " sent.");
+            if (binaryOutput != null) {
+                MessageCodec.write(message, binaryOutput);
+            } else {
+                requestStream.writeObject(message);
+                requestStream.flush();
+                requestStream.reset();
+            }
         } catch (IOException e) {
             frame.appendLog("Error sending message " + e);
+            return false;
+        } finally {
+            sendLock.unlock();
         }
+        frame.appendLog(message + " sent.");
+        return true;
     }
 
     public void stopClient() {
         try {
-            requestStream.close();
+            if (binaryOutput != null) {
+                binaryOutput.close();
+            } else {
+                requestStream.close();
+            }
             answerStream.close();
         } catch (Exception ignore) {
         }
@@ -220,6 +423,34 @@ public class ClientController {
         frame.setComment(text);
     }
 
+    /**
+     * Lock to hold while reading the map through the getters below
+     */
+    public Object getMapLock() {
+        return mapLock;
+    }
+
+    /**
+     * @return  map of the explored cells, in map coordinates; read holding the map lock
+     */
+    public ClientGameDriver getMap() {
+        return gameDriver;
+    }
+
+    /**
+     * @return  map row shown in the first row of the screen
+     */
+    public int getTopRow() {
+        return -addRow;
+    }
+
+    /**
+     * @return  map column shown in the first column of the screen
+     */
+    public int getLeftCol() {
+        return -addCol;
+    }
+
     public Boolean getHWall(int r, int c) {
         return gameDriver.getHWall(r - addRow, c - addCol);
     }
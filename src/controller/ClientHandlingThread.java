@@ -1,68 +1,98 @@
 package controller;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
 
 import model.GameDriver;
 import model.Message;
-import view.ServerFrame;
+import model.MessageCodec;
 
 /**
  * Created by Vadim Shutenko on 20-Aug-18.
  *
- * Handles one client's connection
+ * Handles one client's connection on its own blocking thread,
+ * either a platform or a virtual one.
  */
 
-public class ClientHandlingThread extends Thread {
-    private static int lastId;
+public class ClientHandlingThread implements Runnable, ClientSession {
     private int id;
+    private Thread thread;
 
     private ServerController controller;
     private GameDriver driver;
-    private ServerFrame ui;
+    private ServerListener ui;
 
     private Socket socket;
-    private String name;
+    private volatile String name;   //read by the clients list refresh
     private ObjectInputStream inputStream;
     private ObjectOutputStream outputStream;
+    private DataInputStream binaryInput;    //set when the client agreed on MessageCodec
+    private OutputStream binaryOutput;
+    private ReentrantLock sendLock = new ReentrantLock();  //not synchronized: would pin a virtual thread
 
     /**
      * Constructor
      * @param socket    socket
      * @param controller    server controller
-     * @param ui            Gui frame
+     * @param ui            Gui frame or headless listener
      */
-    public ClientHandlingThread(Socket socket, ServerController controller, ServerFrame ui) {
+    public ClientHandlingThread(Socket socket, ServerController controller, ServerListener ui) {
         this.socket = socket;
         this.controller = controller;
         this.ui = ui;
         driver = new GameDriver(controller);
 
-        id = ++lastId;
+        id = ServerController.nextSessionId();
         name = "#" + id;
     }
 
+    /**
+     * Starts handling on a new thread
+     *
+     * @param factory   platform or virtual thread factory
+     */
+    public void start(ThreadFactory factory) {
+        thread = factory.newThread(this);
+        thread.start();
+    }
+
     /**
      * Main thread
      */
+    @Override
     public void run() {
         boolean process = true;
+        ServerMetrics metrics = controller.getMetrics();
+        metrics.sessionOpened();
 
         try {
+            socket.setTcpNoDelay(true);
             inputStream = new ObjectInputStream(socket.getInputStream());
             outputStream = new ObjectOutputStream(socket.getOutputStream());
             try {
                 Message message = (Message) inputStream.readObject();
+                metrics.messageReceived();
                 if (message.getType() == Message.Type.START) {
                     ui.appendLog("Client's START message received: " + message.getData());
                     if (message.getData().length() > 0) {  //client's name
-                        String newName = name + " " + message.getData();
-                        controller.refreshGuiClients();
-                        name = newName;
+                        String oldName = name;
+                        name = name + " " + message.getData();
+                        controller.sessionRenamed(this, oldName);
+                    }
+                    if (MessageCodec.PROTOCOL.equals(message.getProtocol())) {
+                        sendMessage(message.justAnswer("START accepted").withProtocol(MessageCodec.PROTOCOL));
+                        useBinaryProtocol();
+                    } else {
+                        sendMessage(message.justAnswer("START accepted"));
                     }
-                    sendMessage(message.justAnswer("START accepted"));
                     ui.appendLog("Server start answer sent.");
                 } else {
                     if (message.getType() == Message.Type.END) {
@@ -79,7 +109,8 @@ public class ClientHandlingThread extends Thread {
 
             while (process) {
                 try {
-                    Message message = (Message) inputStream.readObject();
+                    Message message = readMessage();
+                    metrics.messageReceived();
                     if (message.getType() == Message.Type.REQUEST) {
                         ui.appendLog("Client message received-" + message);
                         Message answer = driver.getAnswer(message);
@@ -107,7 +138,30 @@ public class ClientHandlingThread extends Thread {
         }
 
         closeSocket();
-        controller.refreshGuiClients();
+        metrics.sessionClosed();
+        controller.removeSession(this);
+    }
+
+    /**
+     * Switches from object streams to binary frames after the START answer
+     *
+     * @throws IOException
+     */
+    private void useBinaryProtocol() throws IOException {
+        sendLock.lock();
+        try {
+            binaryInput = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            binaryOutput = new BufferedOutputStream(socket.getOutputStream());
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private Message readMessage() throws IOException, ClassNotFoundException {
+        if (binaryInput != null) {
+            return MessageCodec.read(binaryInput);
+        }
+        return (Message) inputStream.readObject();
     }
 
     /**
@@ -116,14 +170,29 @@ public class ClientHandlingThread extends Thread {
      * @param message
      * @throws IOException
      */
-    public synchronized void sendMessage(Message message) throws IOException {
-        outputStream.writeObject(message);
-        outputStream.flush();
+    public void sendMessage(Message message) throws IOException {
+        long start = System.nanoTime();
+        sendLock.lock();
+        try {
+            if (binaryOutput != null) {
+                MessageCodec.write(message, binaryOutput);
+            } else {
+                outputStream.writeObject(message);
+                outputStream.flush();
+            }
+            controller.getMetrics().messageSent(System.nanoTime() - start);
+        } catch (IOException e) {
+            controller.getMetrics().sendError();
+            throw e;
+        } finally {
+            sendLock.unlock();
+        }
     }
 
     /**
      * Disconnects a client
      */
+    @Override
     public void disconnect() {
         ui.appendLog("Sending 'END' to client.");
         try {
@@ -153,10 +222,22 @@ public class ClientHandlingThread extends Thread {
         }
     }
 
+    @Override
+    public boolean isAlive() {
+        return thread != null && thread.isAlive();
+    }
+
+    @Override
+    public int getSessionId() {
+        return id;
+    }
+
+    @Override
     public String getClientName() {
         return name;
     }
 
+    @Override
     public String getClientStatus() {
         return driver.getStatus();
     }
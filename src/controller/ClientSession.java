@@ -0,0 +1,27 @@
+package controller;
+
+/**
+ * One connected client as seen by the server controller,
+ * independent of the I/O model that serves it.
+ */
+public interface ClientSession {
+
+    /**
+     * @return  id unique within the process, see ServerController.nextSessionId()
+     */
+    int getSessionId();
+
+    String getClientName();
+
+    String getClientStatus();
+
+    /**
+     * @return  true while the connection is open
+     */
+    boolean isAlive();
+
+    /**
+     * Sends END to the client and closes the connection
+     */
+    void disconnect();
+}
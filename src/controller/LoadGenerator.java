@@ -0,0 +1,296 @@
+package controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import model.Message;
+import model.MessageCodec;
+
+/**
+ * Network load generator: N simulated players connect to a running server
+ * and walk their mazes with "move" requests, speaking the same protocol as ClientController.
+ *
+ * With a fixed rate, latency is measured from the time a move was due to be sent,
+ * so a stalled server is not hidden by clients that waited for it.
+ *
+ * Usage: LoadGenerator [--host localhost] [--port 4434] [--clients 100] [--rate 10] [--duration 30]
+ *                      [--protocol binary|object]
+ */
+public class LoadGenerator {
+    private String host = "localhost";
+    private int port = ServerController.defaultPort;
+    private int numClients = 100;
+    private double rate = 10;  //moves per second per client, 0 - as fast as answers come
+    private int duration = 30;  //seconds
+    private boolean binary = true;
+
+    private LatencyHistogram moveLatency = new LatencyHistogram();
+    private LatencyHistogram connectLatency = new LatencyHistogram();
+    private AtomicLong moves = new AtomicLong();
+    private AtomicLong games = new AtomicLong();   //exits found
+    private AtomicLong stoppedGames = new AtomicLong();    //games the server stopped before the exit
+    private AtomicLong connectErrors = new AtomicLong();
+    private AtomicLong ioErrors = new AtomicLong();
+    private AtomicLong badAnswers = new AtomicLong();
+    private volatile long deadline;
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--help") || arg.equals("-h")) {
+                    usage();
+                    return;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--host":
+                        generator.host = value;
+                        break;
+                    case "--port":
+                        generator.port = Integer.parseInt(value);
+                        break;
+                    case "--clients":
+                        generator.numClients = Integer.parseInt(value);
+                        break;
+                    case "--rate":
+                        generator.rate = Double.parseDouble(value);
+                        break;
+                    case "--duration":
+                        generator.duration = Integer.parseInt(value);
+                        break;
+                    case "--protocol":
+                        generator.binary = value.equals("binary");
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(2);
+        }
+        generator.run();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: LoadGenerator [--host localhost] [--port " + ServerController.defaultPort + "]"
+                + " [--clients 100] [--rate 10] [--duration 30] [--protocol binary|object]");
+    }
+
+    /**
+     * Runs all clients for the configured duration and prints the report
+     */
+    public void run() throws InterruptedException {
+        ThreadFactory factory = SessionThreads.isVirtualSupported()
+                ? SessionThreads.virtual("LoadGenerator-") : SessionThreads.platform("LoadGenerator-");
+        System.out.println("Load: " + numClients + " clients, " + (rate > 0 ? rate + " moves/s each" : "closed loop")
+                + ", " + duration + " s, " + (binary ? "binary" : "object") + " protocol, " + host + ":" + port);
+
+        long start = System.nanoTime();
+        deadline = start + TimeUnit.SECONDS.toNanos(duration);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numClients; i++) {
+            Thread thread = factory.newThread(new SimulatedClient(i));
+            thread.start();
+            threads.add(thread);
+        }
+
+        long lastMoves = 0;
+        long lastTime = start;
+        while (System.nanoTime() < deadline) {
+            Thread.sleep(Math.min(5000, Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+            long n = moves.get();
+            long now = System.nanoTime();
+            System.out.printf("%5.1f s  moves/s %8.0f  p99 %s%n", (now - start) / 1e9,
+                    (n - lastMoves) / ((now - lastTime) / 1e9), format(moveLatency.getPercentile(99)));
+            lastMoves = n;
+            lastTime = now;
+        }
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        report((System.nanoTime() - start) / 1e9);
+    }
+
+    private void report(double seconds) {
+        System.out.println();
+        System.out.println("Connections: " + connectLatency.getCount() + " ok, " + connectErrors.get() + " failed");
+        System.out.println("Connect time: " + summary(connectLatency));
+        System.out.printf("Moves: %d in %.1f s, %.0f moves/s%n", moves.get(), seconds, moves.get() / seconds);
+        System.out.println("Move latency: " + summary(moveLatency));
+        System.out.println("Exits found: " + games.get());
+        System.out.println("Games stopped by the server: " + stoppedGames.get());
+        System.out.println("Errors: " + ioErrors.get() + " I/O, " + badAnswers.get() + " unexpected answers");
+    }
+
+    private static String summary(LatencyHistogram histogram) {
+        return "p50 " + format(histogram.getPercentile(50))
+                + "  p99 " + format(histogram.getPercentile(99))
+                + "  p99.9 " + format(histogram.getPercentile(99.9))
+                + "  max " + format(histogram.getMax())
+                + "  mean " + format((long) histogram.getMean());
+    }
+
+    private static String format(long nanos) {
+        if (nanos < 1000000) return String.format("%.0f us", nanos / 1e3);
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+
+    /**
+     * One player: connects, walks randomly until the exit is found, then starts a new game
+     */
+    private class SimulatedClient implements Runnable {
+        private int number;
+        private Random random = new Random();
+        private Socket socket;
+        private ObjectOutputStream requestStream;
+        private ObjectInputStream answerStream;
+        private DataInputStream binaryInput;
+        private OutputStream binaryOutput;
+        private int lastId;
+
+        SimulatedClient(int number) {
+            this.number = number;
+        }
+
+        @Override
+        public void run() {
+            long interval = rate > 0 ? (long) (1e9 / rate) : 0;
+            while (System.nanoTime() < deadline) {
+                if (!connect()) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                    continue;
+                }
+                try {
+                    play(interval);
+                } catch (IOException | ClassNotFoundException e) {
+                    if (System.nanoTime() < deadline) {
+                        ioErrors.incrementAndGet();
+                    }
+                }
+                close();
+            }
+        }
+
+        private boolean connect() {
+            long start = System.nanoTime();
+            try {
+                socket = new Socket();
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(host, port), 10000);
+                requestStream = new ObjectOutputStream(socket.getOutputStream());
+                requestStream.flush();
+                answerStream = new ObjectInputStream(socket.getInputStream());
+                binaryInput = null;
+                binaryOutput = null;
+                lastId = 0;
+
+                Message request = new Message(Message.Type.START, "load-" + number, ++lastId);
+                if (binary) {
+                    request.withProtocol(MessageCodec.PROTOCOL);
+                }
+                requestStream.writeObject(request);
+                requestStream.flush();
+                Message answer = (Message) answerStream.readObject();
+                if (answer.getType() != Message.Type.ANSWER) {
+                    throw new IOException("Unexpected START answer " + answer);
+                }
+                if (MessageCodec.PROTOCOL.equals(answer.getProtocol())) {
+                    binaryInput = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    binaryOutput = new BufferedOutputStream(socket.getOutputStream());
+                } else {
+                    requestStream.reset();
+                }
+                connectLatency.record(System.nanoTime() - start);
+                return true;
+            } catch (IOException | ClassNotFoundException e) {
+                connectErrors.incrementAndGet();
+                close();
+                return false;
+            }
+        }
+
+        private void play(long interval) throws IOException, ClassNotFoundException {
+            String[] directions = {"up", "right", "down", "left"};
+            int dest = random.nextInt(4);
+            long due = System.nanoTime();
+            while (System.nanoTime() < deadline) {
+                if (interval > 0) {
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                } else {
+                    due = System.nanoTime();
+                }
+
+                Message request = new Message(Message.Type.REQUEST, "move " + directions[dest], ++lastId);
+                send(request);
+                Message answer = read();
+                moveLatency.record(System.nanoTime() - due);
+                moves.incrementAndGet();
+                due += interval;
+
+                String data = answer.getData();
+                if (answer.getType() != Message.Type.ANSWER || answer.getId() != request.getId()
+                        || !data.startsWith("move ")) {
+                    badAnswers.incrementAndGet();
+                } else if (data.endsWith("=exit")) {
+                    games.incrementAndGet();
+                    send(new Message(Message.Type.END, "", ++lastId));
+                    return;
+                } else if (data.endsWith("=game_stopped")) {
+                    stoppedGames.incrementAndGet();
+                    send(new Message(Message.Type.END, "", ++lastId));
+                    return;
+                } else if (data.endsWith("=no")) {
+                    dest = random.nextInt(4);   //wall: try another way
+                } else if (random.nextInt(4) == 0) {
+                    dest = random.nextInt(4);
+                }
+            }
+            send(new Message(Message.Type.END, "", ++lastId));
+        }
+
+        private void send(Message message) throws IOException {
+            if (binaryOutput != null) {
+                MessageCodec.write(message, binaryOutput);
+            } else {
+                requestStream.writeObject(message);
+                requestStream.flush();
+                requestStream.reset();
+            }
+        }
+
+        private Message read() throws IOException, ClassNotFoundException {
+            if (binaryInput != null) {
+                return MessageCodec.read(binaryInput);
+            }
+            return (Message) answerStream.readObject();
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (Exception ignore) {}
+        }
+    }
+}
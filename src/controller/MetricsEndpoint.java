@@ -0,0 +1,46 @@
+package controller;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Plain-text metrics for scrapers: GET http://127.0.0.1:port/metrics
+ *
+ * Listens on the loopback interface only, served by one background thread.
+ */
+public class MetricsEndpoint {
+    private HttpServer server;
+
+    /**
+     * Starts listening
+     *
+     * @param metrics   metrics to publish
+     * @param port      local port
+     * @throws IOException  if port cannot be bound
+     */
+    public MetricsEndpoint(ServerMetrics metrics, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
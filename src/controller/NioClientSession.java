@@ -0,0 +1,399 @@
+package controller;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import model.GameDriver;
+import model.Message;
+import model.MessageCodec;
+
+/**
+ * One client's connection served by a NioServerEngine I/O thread.
+ *
+ * Speaks the same protocol as ClientHandlingThread: serialized Message objects
+ * over an object stream, or MessageCodec frames once agreed at START.
+ * Incoming bytes are collected until a whole Message can be read, outgoing
+ * messages are serialized into a queue that is written when the channel is writable.
+ * While more than MAX_OUTPUT bytes wait in the queue the client is not read,
+ * so a client that does not read its answers is held back by TCP.
+ */
+public class NioClientSession implements ClientSession {
+    private static final int MAX_INPUT = 64 * 1024;
+    private static final int MAX_OUTPUT = 256 * 1024;  //queued bytes that stop reading, it resumes at half
+    private static final byte[] STREAM_HEADER = {
+            (byte) (ObjectStreamConstants.STREAM_MAGIC >> 8), (byte) ObjectStreamConstants.STREAM_MAGIC,
+            (byte) (ObjectStreamConstants.STREAM_VERSION >> 8), (byte) ObjectStreamConstants.STREAM_VERSION};
+
+    private int id;
+    private volatile String name;   //read by the clients list refresh
+    private boolean started;
+
+    private ServerController controller;
+    private NioServerEngine.IoWorker worker;
+    private GameDriver driver;
+    private ServerListener ui;
+
+    private SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+    private byte[] input = new byte[1024];  //bytes received but not parsed yet
+    private int inputLength;
+    private boolean headerRead;
+    private boolean binary;     //MessageCodec frames after the START answer
+
+    private ByteArrayOutputStream outputBytes = new ByteArrayOutputStream(256);
+    private ObjectOutputStream outputStream;
+    private ArrayDeque<ByteBuffer> outputQueue = new ArrayDeque<>();
+    private int outputLength;   //bytes in outputQueue
+    private boolean readPaused; //too much output queued, I/O thread only
+    private boolean closeAfterFlush;
+    private volatile boolean alive = true;
+
+    NioClientSession(SocketChannel channel, NioServerEngine.IoWorker worker, ServerController controller, ServerListener ui)
+            throws IOException {
+        this.channel = channel;
+        this.worker = worker;
+        this.controller = controller;
+        this.ui = ui;
+        driver = new GameDriver(controller);
+
+        outputStream = new ObjectOutputStream(outputBytes);
+        outputStream.flush();
+        queue(outputBytes.toByteArray());
+        outputBytes.reset();
+
+        id = ServerController.nextSessionId();
+        name = "#" + id;
+    }
+
+    /**
+     * Registers the channel with the worker's selector. Called on the I/O thread.
+     */
+    void register() throws IOException {
+        key = channel.register(worker.getSelector(), SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+    }
+
+    /**
+     * Reads available bytes and handles every complete message, until too much output is queued.
+     * Called on the I/O thread.
+     */
+    void onReadable() {
+        try {
+            while (alive && !readPaused) {
+                readBuffer.clear();
+                int n = channel.read(readBuffer);
+                if (n < 0) {
+                    ui.appendLog("Client " + name + " closed the connection.");
+                    close();
+                    return;
+                }
+                if (n == 0) break;
+                append(readBuffer.array(), n);
+                handleInput();
+            }
+        } catch (Exception e) {
+            ui.appendLog("Error reading or writing message. " + e);
+            close();
+        }
+    }
+
+    /**
+     * Handles the complete messages collected; stops reading the client if too much output is queued
+     */
+    private void handleInput() throws IOException, ClassNotFoundException {
+        Message message;
+        while (alive && !isOutputFull() && (message = nextMessage()) != null) {
+            handle(message);
+        }
+        if (alive && isOutputFull()) {
+            readPaused = true;
+            setInterest();
+        }
+    }
+
+    /**
+     * Writes queued bytes, reads the client again once the queue is half written. Called on the I/O thread.
+     */
+    void onWritable() {
+        try {
+            synchronized (outputQueue) {
+                while (!outputQueue.isEmpty()) {
+                    ByteBuffer buffer = outputQueue.peek();
+                    outputLength -= channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        break;
+                    }
+                    outputQueue.poll();
+                }
+                if (outputQueue.isEmpty() && closeAfterFlush) {
+                    close();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            controller.getMetrics().sendError();
+            ui.appendLog("Error writing to client " + name + " " + e);
+            close();
+            return;
+        }
+        if (readPaused && outputLength() <= MAX_OUTPUT / 2) {
+            readPaused = false;
+            try {
+                handleInput();  //messages collected before the pause, the client may wait for their answers
+            } catch (Exception e) {
+                ui.appendLog("Error reading or writing message. " + e);
+                close();
+                return;
+            }
+        }
+        setInterest();
+    }
+
+    private int outputLength() {
+        synchronized (outputQueue) {
+            return outputLength;
+        }
+    }
+
+    private boolean isOutputFull() {
+        return outputLength() > MAX_OUTPUT;
+    }
+
+    /**
+     * Reads unless paused, writes if anything is queued. Called on the I/O thread.
+     */
+    private void setInterest() {
+        if (!alive || key == null || !key.isValid()) {
+            return;
+        }
+        boolean pending;
+        synchronized (outputQueue) {
+            pending = !outputQueue.isEmpty();
+        }
+        key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | (pending ? SelectionKey.OP_WRITE : 0));
+    }
+
+    private void append(byte[] bytes, int n) throws IOException {
+        if (inputLength + n > MAX_INPUT) {
+            throw new IOException("Client message too long");
+        }
+        if (inputLength + n > input.length) {
+            input = Arrays.copyOf(input, Math.max(input.length * 2, inputLength + n));
+        }
+        System.arraycopy(bytes, 0, input, inputLength, n);
+        inputLength += n;
+    }
+
+    /**
+     * Parses one message from the collected bytes
+     *
+     * @return  message or null if more bytes are needed
+     */
+    private Message nextMessage() throws IOException, ClassNotFoundException {
+        if (!headerRead) {
+            if (inputLength < STREAM_HEADER.length) return null;
+            for (int i = 0; i < STREAM_HEADER.length; i++) {
+                if (input[i] != STREAM_HEADER[i]) throw new IOException("Invalid stream header");
+            }
+            consume(STREAM_HEADER.length);
+            headerRead = true;
+        }
+        if (inputLength == 0) return null;
+
+        if (binary) {
+            int size = MessageCodec.frameSize(input, 0, inputLength);
+            if (size < 0) return null;
+            Message message = MessageCodec.decodeFrame(input, 0, size);
+            consume(size);
+            return message;
+        }
+
+        // the client resets its stream after every message, so each one can be read on its own
+        ByteArrayInputStream bytes = new ByteArrayInputStream(input, 0, inputLength);
+        Message message;
+        try {
+            ObjectInputStream stream = new ObjectInputStream(
+                    new SequenceInputStream(new ByteArrayInputStream(STREAM_HEADER), bytes));
+            message = (Message) stream.readObject();
+        } catch (EOFException incomplete) {
+            return null;
+        }
+        consume(inputLength - bytes.available());
+        return message;
+    }
+
+    private void consume(int n) {
+        System.arraycopy(input, n, input, 0, inputLength - n);
+        inputLength -= n;
+    }
+
+    private void handle(Message message) throws IOException {
+        controller.getMetrics().messageReceived();
+        if (!started) {
+            if (message.getType() == Message.Type.START) {
+                ui.appendLog("Client's START message received: " + message.getData());
+                if (message.getData().length() > 0) {  //client's name
+                    String oldName = name;
+                    name = name + " " + message.getData();
+                    controller.sessionRenamed(this, oldName);
+                }
+                started = true;
+                if (MessageCodec.PROTOCOL.equals(message.getProtocol())) {
+                    sendMessage(message.justAnswer("START accepted").withProtocol(MessageCodec.PROTOCOL));
+                    synchronized (outputQueue) {
+                        binary = true;
+                    }
+                } else {
+                    sendMessage(message.justAnswer("START accepted"));
+                }
+                ui.appendLog("Server start answer sent.");
+            } else {
+                if (message.getType() == Message.Type.END) {
+                    ui.appendLog("Client connection cancelled on client's side.");
+                } else {
+                    ui.appendLog("Unexpected client message received: " + message);
+                }
+                close();
+            }
+            return;
+        }
+
+        if (message.getType() == Message.Type.REQUEST) {
+            ui.appendLog("Client message received-" + message);
+            Message answer = driver.getAnswer(message);
+            sendMessage(answer);
+            ui.appendLog("Server answer sent-" + answer);
+        } else {
+            if (message.getType() == Message.Type.END) {
+                ui.appendLog("End message received.");
+                close();
+            } else {
+                if (message.getType() == Message.Type.INFORM) {
+                    ui.appendLog("Client's message received: " + message);
+                } else {
+                    ui.appendLog("Unexpected client message type received: " + message + " - ignored");
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues message for sending, nothing is sent after END. May be called from any thread.
+     *
+     * @param message
+     * @throws IOException
+     */
+    public void sendMessage(Message message) throws IOException {
+        long start = System.nanoTime();
+        synchronized (outputQueue) {
+            if (closeAfterFlush) {
+                return;
+            }
+            queue(message);
+        }
+        worker.requestWrite(this);
+        controller.getMetrics().messageSent(System.nanoTime() - start);
+    }
+
+    /**
+     * Serializes a message into the output queue. Called holding the queue's lock.
+     */
+    private void queue(Message message) throws IOException {
+        if (binary) {
+            queue(MessageCodec.encode(message));
+        } else {
+            outputStream.reset();   //before, not after: no reset mark may follow the START answer
+            outputStream.writeObject(message);
+            outputStream.flush();
+            queue(outputBytes.toByteArray());
+            outputBytes.reset();
+        }
+    }
+
+    /**
+     * Adds bytes to the output queue. Called holding the queue's lock.
+     */
+    private void queue(byte[] bytes) {
+        outputQueue.add(ByteBuffer.wrap(bytes));
+        outputLength += bytes.length;
+    }
+
+    /**
+     * Enables write interest, keeps reading paused if it is. Called on the I/O thread.
+     */
+    void enableWrite() {
+        if (alive && key != null && key.isValid()) {
+            key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Disconnects a client: END is queued and the channel is closed once it is written
+     */
+    @Override
+    public void disconnect() {
+        ui.appendLog("Sending 'END' to client.");
+        try {
+            synchronized (outputQueue) {   //the queue must not be written empty and closed between the two
+                if (closeAfterFlush) {
+                    return;
+                }
+                queue(new Message(Message.Type.END, ""));
+                closeAfterFlush = true;
+            }
+            worker.requestWrite(this);
+        } catch (Exception e) {
+            ui.appendLog("Failed to send END to client " + e);
+            worker.requestClose(this);
+        }
+    }
+
+    /**
+     * Closes the channel. Called on the I/O thread.
+     */
+    void close() {
+        if (!alive) return;
+        alive = false;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+            ui.appendLog("Client socket closed.");
+        } catch (IOException e) {
+            ui.appendLog("Error closing client socket.");
+        }
+        worker.sessionClosed(this);
+    }
+
+    @Override
+    public boolean isAlive() {
+        return alive;
+    }
+
+    @Override
+    public int getSessionId() {
+        return id;
+    }
+
+    @Override
+    public String getClientName() {
+        return name;
+    }
+
+    @Override
+    public String getClientStatus() {
+        return driver.getStatus();
+    }
+}
@@ -0,0 +1,210 @@
+package controller;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking server engine.
+ *
+ * One acceptor thread hands new connections to a fixed set of I/O threads,
+ * each multiplexing many NioClientSession's on its own Selector.
+ */
+public class NioServerEngine {
+    private ServerController controller;
+    private ServerListener ui;
+    private int maxClients;
+
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private Thread acceptThread;
+    private IoWorker[] workers;
+    private int nextWorker;
+    private AtomicInteger numSessions = new AtomicInteger();
+    private volatile boolean running;
+
+    public NioServerEngine(ServerController controller, ServerListener ui, int maxClients) {
+        this(controller, ui, maxClients, Runtime.getRuntime().availableProcessors());
+    }
+
+    public NioServerEngine(ServerController controller, ServerListener ui, int maxClients, int numWorkers) {
+        this.controller = controller;
+        this.ui = ui;
+        this.maxClients = maxClients;
+        workers = new IoWorker[Math.max(1, numWorkers)];
+    }
+
+    /**
+     * Binds the port and starts acceptor and I/O threads
+     *
+     * @param port  port
+     * @throws IOException  if port cannot be bound
+     */
+    public void start(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            acceptSelector = Selector.open();
+            serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new IoWorker(i);
+            }
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+
+        running = true;
+        for (IoWorker worker : workers) {
+            worker.thread.start();
+        }
+        acceptThread = new Thread(this::acceptLoop, "NioServerEngine-accept");
+        acceptThread.start();
+    }
+
+    private void acceptLoop() {
+        SelectionKey acceptKey = serverChannel.keyFor(acceptSelector);
+        while (running) {
+            try {
+                // stop accepting while the server is full, the backlog keeps waiting clients
+                boolean full = numSessions.get() >= maxClients;
+                controller.getMetrics().setAcceptPaused(full);
+                acceptKey.interestOps(full ? 0 : SelectionKey.OP_ACCEPT);
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while (numSessions.get() < maxClients && (channel = serverChannel.accept()) != null) {
+                    controller.getMetrics().connectionAccepted();
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    IoWorker worker = workers[nextWorker];
+                    nextWorker = (nextWorker + 1) % workers.length;
+                    NioClientSession session = new NioClientSession(channel, worker, controller, ui);
+                    numSessions.incrementAndGet();
+                    controller.getMetrics().sessionOpened();
+                    controller.addSession(session);
+                    worker.add(session);
+                }
+            } catch (Exception ex) {
+                if (running) {
+                    controller.getMetrics().acceptError();
+                    ui.appendLog("Problem accepting client socket.");
+                }
+            }
+        }
+        try {
+            acceptSelector.close();
+        } catch (IOException ignore) {}
+    }
+
+    /**
+     * Stops all threads and closes server channel. Open sessions are closed.
+     */
+    public void stop() {
+        running = false;
+        if (acceptSelector != null) {
+            acceptSelector.wakeup();
+        }
+        for (IoWorker worker : workers) {
+            if (worker != null) {
+                worker.selector.wakeup();
+            }
+        }
+        try {
+            serverChannel.close();
+        } catch (Exception ignore) {}
+    }
+
+    /**
+     * One I/O thread with its own selector
+     */
+    class IoWorker implements Runnable {
+        private Selector selector;
+        private Thread thread;
+        private ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        IoWorker(int n) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "NioServerEngine-io-" + n);
+        }
+
+        Selector getSelector() {
+            return selector;
+        }
+
+        void add(NioClientSession session) {
+            execute(() -> {
+                try {
+                    session.register();
+                } catch (IOException e) {
+                    session.close();
+                }
+            });
+        }
+
+        void requestWrite(NioClientSession session) {
+            if (Thread.currentThread() == thread) {
+                session.enableWrite();
+            } else {
+                execute(session::enableWrite);
+            }
+        }
+
+        void requestClose(NioClientSession session) {
+            execute(session::close);
+        }
+
+        void sessionClosed(NioClientSession session) {
+            numSessions.decrementAndGet();
+            controller.getMetrics().sessionClosed();
+            acceptSelector.wakeup();
+            controller.removeSession(session);
+        }
+
+        private void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    ui.appendLog("Selector failed: " + e);
+                    break;
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioClientSession session = (NioClientSession) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        session.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        session.onWritable();
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((NioClientSession) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException ignore) {}
+        }
+    }
+}
@@ -3,11 +3,20 @@ package controller;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javafx.application.Platform;
-import view.ServerFrame;
+import javax.management.JMException;
+
+import model.ChunkedMaze;
+import model.MazePool;
+import model.MazeWalls;
 
 /**
  * Created by Vadim Shutenko on 20-Aug-18.
@@ -19,29 +28,85 @@ import view.ServerFrame;
  */
 public class ServerController {
     public static final int defaultPort = 4434;
-    public static final int maxNumClients = 3;
-    private ServerFrame ui;
+    public static final int defaultNumClients = 3;
+    public static final int maxNumClients = 50000;
+    private static final int REFRESH_DELAY_MS = 50;    //client list changes within this time are shown together
+    private static final AtomicInteger lastSessionId = new AtomicInteger();
+    private ServerListener ui;    //gui frame or headless log
     private ServerSocket serverSocket;
     private Thread controllerThread;
-    private List<ClientHandlingThread> clientThreads;
+    private NioServerEngine nioEngine;
+    private SessionRegistry sessions = new SessionRegistry();
+    private ServerMetrics metrics = new ServerMetrics();
+    private MetricsEndpoint metricsEndpoint;
+    private AtomicBoolean refreshPending = new AtomicBoolean();
+    private ScheduledExecutorService refreshExecutor;
+    private volatile ChunkedMaze endlessMaze;
+    private volatile MazeWalls sharedMaze;
+    private volatile MazePool mazePool = new MazePool(MazePool.DEFAULT_WATERMARK);
 
-    public ServerController(ServerFrame frame) {
-        ui = frame;
+    public ServerController(ServerListener listener) {
+        ui = listener;
+        refreshExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ServerController-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /**
-     * Starts server
+     * Starts server with a thread per client
      *
      * @param textPort      port
      * @param maxClients    max clients
      * @return              true if success
      */
     public boolean startServer(String textPort, String maxClients) {
+        return startServer(textPort, maxClients, Engine.THREADS);
+    }
+
+    /**
+     * Starts server
+     *
+     * @param textPort      port
+     * @param maxClients    max clients
+     * @param engine        how client connections are served
+     * @return              true if success
+     */
+    public boolean startServer(String textPort, String maxClients, Engine engine) {
         int port = checkPort(textPort);
         int max = checkMaxClients(maxClients);
 
-        clientThreads = new LinkedList<>();
-        ui.refreshClients(new LinkedList<String>(), new LinkedList<String>());
+        ui.refreshClients(new ArrayList<String>(), new ArrayList<String>());
+        try {
+            metrics.register(port);
+        } catch (JMException e) {
+            ui.appendLog("Metrics are not available through JMX: " + e);
+        }
+
+        if (engine == Engine.NIO) {
+            nioEngine = new NioServerEngine(this, ui, max);
+            try {
+                nioEngine.start(port);
+                ui.appendLog("Non-blocking server started on port: " + port);
+            } catch (IOException io) {
+                ui.appendLog("Can not create server socket.");
+                nioEngine = null;
+                metrics.unregister();
+                return false;
+            }
+            return true;
+        }
+
+        ThreadFactory threadFactory = SessionThreads.platform();
+        if (engine == Engine.VIRTUAL_THREADS) {
+            if (SessionThreads.isVirtualSupported()) {
+                threadFactory = SessionThreads.virtual();
+            } else {
+                ui.appendLog("Virtual threads are not supported by this JVM, using platform threads.");
+            }
+        }
+        ThreadFactory factory = threadFactory;
 
         serverSocket = null;
         try {
@@ -49,23 +114,29 @@ public class ServerController {
             ui.appendLog("Server started on port: " + port);
         } catch (Exception io) {
             ui.appendLog("Can not create server socket.");
+            metrics.unregister();
             return false;
         }
 
         controllerThread = new Thread(() -> {
             while (true) {
-                if (clientThreads.size() < max) {
+                if (sessions.size() < max) {
+                    metrics.setAcceptPaused(false);
                     try {
                         Socket socket = serverSocket.accept();
+                        metrics.connectionAccepted();
                         ClientHandlingThread clientThread = new ClientHandlingThread(socket, this, ui);
-                        clientThread.start();
-                        clientThreads.add(clientThread);
-                        refreshGuiClients();
+                        addSession(clientThread);
+                        clientThread.start(factory);
                     } catch (IOException ex) {
+                        if (serverSocket.isClosed()) break;
+                        metrics.acceptError();
                         ui.appendLog("Problem accepting client socket.");
                     }
+                    continue;
                 }
-                try {
+                metrics.setAcceptPaused(true);
+                try {   //server is full, wait for clients to leave
                     Thread.sleep(2000);
                 } catch (InterruptedException ex) {
                     Thread.currentThread().interrupt();
@@ -80,6 +151,85 @@ public class ServerController {
         return true;
     }
 
+    /**
+     * Serves metrics as text on a local port, see MetricsEndpoint
+     *
+     * @param port  port
+     * @return      true if success
+     */
+    public boolean startMetricsEndpoint(int port) {
+        stopMetricsEndpoint();
+        try {
+            metricsEndpoint = new MetricsEndpoint(metrics, port);
+            ui.appendLog("Metrics available at http://127.0.0.1:" + metricsEndpoint.getPort() + "/metrics");
+            return true;
+        } catch (IOException e) {
+            ui.appendLog("Can not start metrics endpoint on port " + port + ": " + e);
+            return false;
+        }
+    }
+
+    public void stopMetricsEndpoint() {
+        if (metricsEndpoint != null) {
+            metricsEndpoint.stop();
+            metricsEndpoint = null;
+        }
+    }
+
+    /**
+     * Sets the game for clients connecting from now on
+     *
+     * @param maze  endless maze shared by all players, null - classic game, a small maze per client
+     */
+    public void setEndlessMaze(ChunkedMaze maze) {
+        endlessMaze = maze;
+    }
+
+    public ChunkedMaze getEndlessMaze() {
+        return endlessMaze;
+    }
+
+    /**
+     * Sets one maze for all clients connecting from now on, ex: a MappedMaze too large for the heap.
+     * An endless maze, if set, takes precedence.
+     *
+     * @param maze  maze shared by all players, null - a small maze per client
+     */
+    public void setSharedMaze(MazeWalls maze) {
+        sharedMaze = maze;
+    }
+
+    public MazeWalls getSharedMaze() {
+        return sharedMaze;
+    }
+
+    /**
+     * Sets how many mazes of each size are generated in advance for new games
+     *
+     * @param watermark     mazes per size, 0 - no pool, every game generates its maze
+     */
+    public void setMazePoolSize(int watermark) {
+        MazePool old = mazePool;
+        if (old != null && old.getWatermark() == watermark) {
+            return;
+        }
+        mazePool = watermark > 0 ? new MazePool(watermark) : null;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * @return  pool of ready mazes, null if there is none
+     */
+    public MazePool getMazePool() {
+        return mazePool;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Checks ports number that was inputted by user
      * In case of error sets default port
@@ -113,58 +263,102 @@ public class ServerController {
         return numClients;
     }
 
+    /**
+     * Next id for a client session, unique within the process
+     * @return  id
+     */
+    static int nextSessionId() {
+        return lastSessionId.incrementAndGet();
+    }
+
+    /**
+     * Registers a new session, before it starts serving its client
+     * @param session
+     */
+    void addSession(ClientSession session) {
+        sessions.add(session);
+        refreshGuiClients();
+    }
+
+    /**
+     * Unregisters a session that has ended. May be called more than once.
+     * @param session
+     */
+    void removeSession(ClientSession session) {
+        if (sessions.remove(session)) {
+            refreshGuiClients();
+        }
+    }
+
+    /**
+     * Updates the registry after a session got its client's name
+     * @param session
+     * @param oldName   name before
+     */
+    void sessionRenamed(ClientSession session, String oldName) {
+        sessions.rename(session, oldName);
+        refreshGuiClients();
+    }
+
+    /**
+     * @return  connected sessions
+     */
+    public SessionRegistry getSessions() {
+        return sessions;
+    }
+
     /**
      * Disconnects client with given name
      * @param name
-     * @return
-     */
-    public synchronized boolean disconnectClient(String name) {
-        for (ClientHandlingThread clientThread: clientThreads) {
-            if (clientThread.getClientName().equals(name)) {
-                clientThread.disconnect();
-                ui.appendLog("Client " + name + " disconnected");
-                clientThreads.remove(clientThread);
-                refreshGuiClients();
-                return true;
-            }
+     * @return  false if there is no such client (any more)
+     */
+    public boolean disconnectClient(String name) {
+        ClientSession session = sessions.get(name);
+        if (session == null || !sessions.remove(session)) {
+            return false;
         }
-        return false;
+        session.disconnect();
+        ui.appendLog("Client " + name + " disconnected");
+        refreshGuiClients();
+        return true;
     }
 
     /**
      * Disconnects all clients
      */
-    public synchronized void disconnectAllClients() {
-        if (clientThreads != null) {
-            while (clientThreads.size() > 0) {
-                disconnectClient(clientThreads.get(0).getClientName());
+    public void disconnectAllClients() {
+        for (ClientSession session : sessions.sessions()) {
+            if (sessions.remove(session)) {
+                session.disconnect();
+                ui.appendLog("Client " + session.getClientName() + " disconnected");
             }
         }
+        refreshGuiClients();
     }
 
     /**
-     * Refreshes clients list in gui
+     * Asks for the clients list in gui to be refreshed. May be called from any thread.
+     *
+     * Calls within REFRESH_DELAY_MS are coalesced into one ui.refreshClients.
      */
-    public synchronized void refreshGuiClients() {
-        Platform.runLater(() -> {
-            try {
-                Thread.sleep(300);
-            } catch (Exception ignore) {}
-            List<String> clients = new LinkedList<>();
-            List<String> statuses = new LinkedList<>();
-
-            //remove interrupted threads from the list
-            for (int i = clientThreads.size() - 1; i >= 0; i--) {
-                if (!clientThreads.get(i).isAlive()) {
-                    clientThreads.remove(i);
-                }
-            }
-            for (ClientHandlingThread clientThread : clientThreads) {
-                clients.add(clientThread.getClientName());
-                statuses.add(clientThread.getClientStatus());
-            }
-            ui.refreshClients(clients, statuses);
-        });
+    public void refreshGuiClients() {
+        if (refreshPending.compareAndSet(false, true)) {
+            refreshExecutor.schedule(this::publishClients, REFRESH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sends the current clients list to the gui. Runs on the refresh thread.
+     */
+    private void publishClients() {
+        refreshPending.set(false);     //changes from now on schedule the next refresh
+        List<String> clients = new ArrayList<>();
+        List<String> statuses = new ArrayList<>();
+        for (ClientSession clientThread : sessions.snapshot()) {
+            clients.add(clientThread.getClientName());
+            statuses.add(clientThread.getClientStatus());
+        }
+        ui.refreshClients(clients, statuses);
     }
 
     /**
@@ -177,5 +371,19 @@ public class ServerController {
         if(controllerThread != null) {
             controllerThread.interrupt();
         }
+        if (nioEngine != null) {
+            nioEngine.stop();
+            nioEngine = null;
+        }
+        metrics.unregister();
+        stopMetricsEndpoint();
     }
+
+    /**
+     * How client connections are served
+     */
+    public enum Engine {THREADS, VIRTUAL_THREADS, NIO}
+    // Threads: one blocking platform thread per client.
+    // Virtual threads: one blocking virtual thread per client (Java 21+).
+    // NIO: a few selector threads serve all clients.
 }
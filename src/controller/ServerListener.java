@@ -0,0 +1,25 @@
+package controller;
+
+import java.util.List;
+
+/**
+ * Receives server events: log lines and client list changes.
+ * Implemented by the JavaFX ServerFrame and by the headless HeadlessServer.
+ */
+public interface ServerListener {
+
+    /**
+     * Appends a log line. May be called from any thread.
+     *
+     * @param text
+     */
+    void appendLog(String text);
+
+    /**
+     * Shows the current clients. May be called from any thread.
+     *
+     * @param clients   client names
+     * @param statuses  client statuses, in the same order
+     */
+    void refreshClients(List<String> clients, List<String> statuses);
+}
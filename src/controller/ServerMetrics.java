@@ -0,0 +1,356 @@
+package controller;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of one server. All updates are lock-free
+ * and may come from any thread: accept loop, session threads or NIO workers.
+ *
+ * Read through JMX (ServerMetricsMBean) or as text from MetricsEndpoint.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    private LongAdder sessionsOpened = new LongAdder();
+    private LongAdder sessionsClosed = new LongAdder();
+    private LongAdder connectionsAccepted = new LongAdder();
+    private LongAdder acceptErrors = new LongAdder();
+    private AtomicBoolean acceptPaused = new AtomicBoolean();
+    private LongAdder acceptPauses = new LongAdder();
+    private LongAdder messagesReceived = new LongAdder();
+    private LongAdder messagesSent = new LongAdder();
+    private LongAdder sendErrors = new LongAdder();
+    private LongAdder movesYes = new LongAdder();
+    private LongAdder movesNo = new LongAdder();
+    private LongAdder movesExit = new LongAdder();
+    private LongAdder movesGameStopped = new LongAdder();
+    private LongAdder unrecognizedRequests = new LongAdder();
+    private LongAdder mazePoolHits = new LongAdder();
+    private LongAdder mazePoolMisses = new LongAdder();
+    private LatencyHistogram requestLatency = new LatencyHistogram();    //GameDriver.getAnswer
+    private LatencyHistogram sendLatency = new LatencyHistogram();
+
+    //moves per second between two reads, sampled at most once a second
+    private final Object rateLock = new Object();
+    private long rateTime = System.nanoTime();
+    private long rateMoves;
+    private double movesPerSecond;
+
+    private ObjectName objectName;
+
+    /**
+     * Registers the platform MBean "SimpleServerMaze:type=ServerMetrics,port=..."
+     *
+     * @param port  server port, tells servers in one JVM apart
+     * @throws JMException  if registration fails
+     */
+    public void register(int port) throws JMException {
+        unregister();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("SimpleServerMaze:type=ServerMetrics,port=" + port);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+        objectName = name;
+    }
+
+    public void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignore) {}
+            objectName = null;
+        }
+    }
+
+    public void sessionOpened() {
+        sessionsOpened.increment();
+    }
+
+    public void sessionClosed() {
+        sessionsClosed.increment();
+    }
+
+    public void connectionAccepted() {
+        connectionsAccepted.increment();
+    }
+
+    public void acceptError() {
+        acceptErrors.increment();
+    }
+
+    /**
+     * @param paused    true while the server is full and new clients wait in the backlog
+     */
+    public void setAcceptPaused(boolean paused) {
+        if (acceptPaused.getAndSet(paused) != paused && paused) {
+            acceptPauses.increment();
+        }
+    }
+
+    public void messageReceived() {
+        messagesReceived.increment();
+    }
+
+    /**
+     * @param nanos     time spent in sendMessage
+     */
+    public void messageSent(long nanos) {
+        messagesSent.increment();
+        sendLatency.record(nanos);
+    }
+
+    public void sendError() {
+        sendErrors.increment();
+    }
+
+    /**
+     * @param result    yes, no, exit or game_stopped
+     */
+    public void moveAnswered(String result) {
+        switch (result) {
+            case "yes":
+                movesYes.increment();
+                break;
+            case "no":
+                movesNo.increment();
+                break;
+            case "exit":
+                movesExit.increment();
+                break;
+            default:
+                movesGameStopped.increment();
+        }
+    }
+
+    public void requestUnrecognized() {
+        unrecognizedRequests.increment();
+    }
+
+    /**
+     * A new game got a pre-generated maze
+     */
+    public void mazePoolHit() {
+        mazePoolHits.increment();
+    }
+
+    /**
+     * A new game had to generate its maze
+     */
+    public void mazePoolMiss() {
+        mazePoolMisses.increment();
+    }
+
+    /**
+     * @param nanos     time spent answering one request
+     */
+    public void requestHandled(long nanos) {
+        requestLatency.record(nanos);
+    }
+
+    @Override
+    public long getActiveSessions() {
+        return sessionsOpened.sum() - sessionsClosed.sum();
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    @Override
+    public long getAcceptErrors() {
+        return acceptErrors.sum();
+    }
+
+    @Override
+    public boolean isAcceptPaused() {
+        return acceptPaused.get();
+    }
+
+    @Override
+    public long getAcceptPauses() {
+        return acceptPauses.sum();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.sum();
+    }
+
+    @Override
+    public long getSendErrors() {
+        return sendErrors.sum();
+    }
+
+    @Override
+    public long getMoves() {
+        return movesYes.sum() + movesNo.sum() + movesExit.sum() + movesGameStopped.sum();
+    }
+
+    /**
+     * @return  moves per second since the previous sample, samples are at least a second apart
+     */
+    @Override
+    public double getMovesPerSecond() {
+        synchronized (rateLock) {
+            long now = System.nanoTime();
+            if (now - rateTime >= 1000000000L) {
+                long moves = getMoves();
+                movesPerSecond = (moves - rateMoves) * 1e9 / (now - rateTime);
+                rateMoves = moves;
+                rateTime = now;
+            }
+            return movesPerSecond;
+        }
+    }
+
+    @Override
+    public long getMovesYes() {
+        return movesYes.sum();
+    }
+
+    @Override
+    public long getMovesNo() {
+        return movesNo.sum();
+    }
+
+    @Override
+    public long getMovesExit() {
+        return movesExit.sum();
+    }
+
+    @Override
+    public long getMovesGameStopped() {
+        return movesGameStopped.sum();
+    }
+
+    @Override
+    public long getUnrecognizedRequests() {
+        return unrecognizedRequests.sum();
+    }
+
+    @Override
+    public long getMazePoolHits() {
+        return mazePoolHits.sum();
+    }
+
+    @Override
+    public long getMazePoolMisses() {
+        return mazePoolMisses.sum();
+    }
+
+    @Override
+    public long getRequestLatencyP50() {
+        return requestLatency.getPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getRequestLatencyP99() {
+        return requestLatency.getPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getRequestLatencyP999() {
+        return requestLatency.getPercentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getRequestLatencyMax() {
+        return requestLatency.getMax() / 1000;
+    }
+
+    @Override
+    public long getSendLatencyP50() {
+        return sendLatency.getPercentile(50) / 1000;
+    }
+
+    @Override
+    public long getSendLatencyP99() {
+        return sendLatency.getPercentile(99) / 1000;
+    }
+
+    @Override
+    public long getSendLatencyP999() {
+        return sendLatency.getPercentile(99.9) / 1000;
+    }
+
+    @Override
+    public long getSendLatencyMax() {
+        return sendLatency.getMax() / 1000;
+    }
+
+    @Override
+    public void resetLatencies() {
+        requestLatency.reset();
+        sendLatency.reset();
+    }
+
+    /**
+     * Metrics in the Prometheus text format
+     *
+     * @return  text, one metric per line
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder(2048);
+        gauge(text, "maze_sessions_active", "Open client sessions", getActiveSessions());
+        counter(text, "maze_connections_accepted_total", "Accepted connections", getConnectionsAccepted());
+        counter(text, "maze_accept_errors_total", "Failed accepts", getAcceptErrors());
+        gauge(text, "maze_accept_paused", "1 while the server is full and new clients wait in the backlog",
+                isAcceptPaused() ? 1 : 0);
+        counter(text, "maze_accept_pauses_total", "Times the server became full", getAcceptPauses());
+        counter(text, "maze_messages_received_total", "Messages received from clients", getMessagesReceived());
+        counter(text, "maze_messages_sent_total", "Messages sent to clients", getMessagesSent());
+        counter(text, "maze_send_errors_total", "Failed sends", getSendErrors());
+
+        text.append("# HELP maze_moves_total Moves answered, by result\n");
+        text.append("# TYPE maze_moves_total counter\n");
+        text.append("maze_moves_total{result=\"yes\"} ").append(getMovesYes()).append('\n');
+        text.append("maze_moves_total{result=\"no\"} ").append(getMovesNo()).append('\n');
+        text.append("maze_moves_total{result=\"exit\"} ").append(getMovesExit()).append('\n');
+        text.append("maze_moves_total{result=\"game_stopped\"} ").append(getMovesGameStopped()).append('\n');
+        counter(text, "maze_unrecognized_requests_total", "Requests that were not understood", getUnrecognizedRequests());
+        counter(text, "maze_pool_hits_total", "New games given a pre-generated maze", getMazePoolHits());
+        counter(text, "maze_pool_misses_total", "New games that generated their maze", getMazePoolMisses());
+
+        summary(text, "maze_request_seconds", "Time to answer one request", requestLatency);
+        summary(text, "maze_send_seconds", "Time to send or queue one message", sendLatency);
+        return text.toString();
+    }
+
+    private static void counter(StringBuilder text, String name, String help, long value) {
+        header(text, name, help, "counter");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder text, String name, String help, long value) {
+        header(text, name, help, "gauge");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder text, String name, String help, LatencyHistogram histogram) {
+        header(text, name, help, "summary");
+        String[] quantiles = {"0.5", "0.99", "0.999"};
+        for (String quantile : quantiles) {
+            text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getPercentile(Double.parseDouble(quantile) * 100) / 1e9).append('\n');
+        }
+        text.append(name).append("_sum ").append(histogram.getSum() / 1e9).append('\n');
+        text.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static void header(StringBuilder text, String name, String help, String type) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
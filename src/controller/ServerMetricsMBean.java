@@ -0,0 +1,58 @@
+package controller;
+
+/**
+ * Server metrics as seen through JMX. Latencies are in microseconds.
+ */
+public interface ServerMetricsMBean {
+    long getActiveSessions();
+
+    long getConnectionsAccepted();
+
+    long getAcceptErrors();
+
+    boolean isAcceptPaused();
+
+    long getAcceptPauses();
+
+    long getMessagesReceived();
+
+    long getMessagesSent();
+
+    long getSendErrors();
+
+    long getMoves();
+
+    double getMovesPerSecond();
+
+    long getMovesYes();
+
+    long getMovesNo();
+
+    long getMovesExit();
+
+    long getMovesGameStopped();
+
+    long getUnrecognizedRequests();
+
+    long getMazePoolHits();
+
+    long getMazePoolMisses();
+
+    long getRequestLatencyP50();
+
+    long getRequestLatencyP99();
+
+    long getRequestLatencyP999();
+
+    long getRequestLatencyMax();
+
+    long getSendLatencyP50();
+
+    long getSendLatencyP99();
+
+    long getSendLatencyP999();
+
+    long getSendLatencyMax();
+
+    void resetLatencies();
+}
@@ -0,0 +1,85 @@
+package controller;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connected sessions by id and by name.
+ *
+ * Lookups are lock-free hash lookups, add and remove are atomic per session,
+ * so the accept thread, session threads and the gui may use it at the same time.
+ */
+public class SessionRegistry {
+    private ConcurrentHashMap<Integer, ClientSession> byId = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, ClientSession> byName = new ConcurrentHashMap<>();
+
+    public void add(ClientSession session) {
+        byId.put(session.getSessionId(), session);
+        byName.put(session.getClientName(), session);
+    }
+
+    /**
+     * Removes a session
+     *
+     * @param session   session
+     * @return          true if it was registered, false if someone else removed it first
+     */
+    public boolean remove(ClientSession session) {
+        if (!byId.remove(session.getSessionId(), session)) {
+            return false;
+        }
+        byName.remove(session.getClientName(), session);   //a rename in progress cleans up after itself
+        return true;
+    }
+
+    /**
+     * Updates the name index after a session got its client's name
+     *
+     * @param session   session with the new name
+     * @param oldName   name it was registered with
+     */
+    public void rename(ClientSession session, String oldName) {
+        byName.remove(oldName, session);
+        if (byId.get(session.getSessionId()) != session) {
+            return;     //already removed
+        }
+        byName.put(session.getClientName(), session);
+        if (byId.get(session.getSessionId()) != session) {
+            byName.remove(session.getClientName(), session);   //removed while renaming
+        }
+    }
+
+    public ClientSession get(int id) {
+        return byId.get(id);
+    }
+
+    public ClientSession get(String name) {
+        return byName.get(name);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * Sessions without copying. Iteration never throws ConcurrentModificationException
+     * and sees sessions added or removed during it, or not.
+     *
+     * @return  live read-only view
+     */
+    public Collection<ClientSession> sessions() {
+        return Collections.unmodifiableCollection(byId.values());
+    }
+
+    /**
+     * @return  copy of the sessions in the order they connected
+     */
+    public List<ClientSession> snapshot() {
+        List<ClientSession> sessions = new ArrayList<>(byId.values());
+        sessions.sort((a, b) -> Integer.compare(a.getSessionId(), b.getSessionId()));
+        return sessions;
+    }
+}
@@ -0,0 +1,67 @@
+package controller;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories for blocking client sessions.
+ *
+ * Virtual threads are looked up at run time, so the project still builds
+ * and runs on JVMs older than 21 (falling back to platform threads there).
+ */
+public class SessionThreads {
+    private static final String defaultName = "ClientHandlingThread-";
+    private static final boolean virtualSupported = lookupVirtualFactory(defaultName) != null;
+
+    private SessionThreads() {
+    }
+
+    /**
+     * @return  factory of ordinary platform threads
+     */
+    public static ThreadFactory platform() {
+        return platform(defaultName);
+    }
+
+    /**
+     * @param name  thread name prefix
+     * @return      factory of ordinary platform threads
+     */
+    public static ThreadFactory platform(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> new Thread(r, name + counter.incrementAndGet());
+    }
+
+    /**
+     * @return  factory of virtual threads, or null if the JVM has none
+     */
+    public static ThreadFactory virtual() {
+        return virtual(defaultName);
+    }
+
+    /**
+     * @param name  thread name prefix
+     * @return      factory of virtual threads, or null if the JVM has none
+     */
+    public static ThreadFactory virtual(String name) {
+        return virtualSupported ? lookupVirtualFactory(name) : null;
+    }
+
+    public static boolean isVirtualSupported() {
+        return virtualSupported;
+    }
+
+    /**
+     * Thread.ofVirtual().name(name, 1).factory()
+     */
+    private static ThreadFactory lookupVirtualFactory(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
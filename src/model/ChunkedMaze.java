@@ -0,0 +1,179 @@
+package model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Endless maze: the plane is split into chunks of CHUNK_SIZE x CHUNK_SIZE cells,
+ * a chunk is generated the first time somebody reaches it.
+ *
+ * A chunk is a Maze made from (seed, chunk row, chunk column) alone, so a chunk that was evicted
+ * comes back the same. Every border between two chunks has one door, its place is chosen from
+ * the seed and the border, so both chunks agree on it without the other one being generated.
+ * Inside a chunk there is exactly one path between two cells; through the doors every cell
+ * can be reached from every other one.
+ *
+ * Generated chunks are kept in a least recently used cache shared by all players,
+ * chunks that no player has entered for a while are dropped first.
+ */
+public class ChunkedMaze {
+    public static final int CHUNK_SIZE = 64;    //rows and columns of a chunk
+    private static final int CHUNK_SHIFT = 6;
+    private static final int DEFAULT_CAPACITY = 4096;  //chunks, about 8 MB
+
+    private long seed;
+    private int capacity;
+    private Map<Long, Maze> chunks;
+
+    public ChunkedMaze(long seed) {
+        this(seed, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param seed      the same seed gives the same maze
+     * @param capacity  chunks kept in memory
+     */
+    public ChunkedMaze(long seed, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.seed = seed;
+        this.capacity = capacity;
+        chunks = new LinkedHashMap<Long, Maze>(Math.min(capacity, 1 << 16), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Maze> eldest) {
+                return size() > ChunkedMaze.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Chunk containing cell (r, c), generated if it is not in the cache
+     *
+     * @param r     row, any int
+     * @param c     column, any int
+     * @return      chunk, its cell (r & (CHUNK_SIZE - 1), c & (CHUNK_SIZE - 1)) is the cell (r, c)
+     */
+    public Maze getChunk(int r, int c) {
+        int chunkRow = r >> CHUNK_SHIFT;
+        int chunkCol = c >> CHUNK_SHIFT;
+        Long key = ((long) chunkRow << 32) | (chunkCol & 0xffffffffL);
+        Maze chunk;
+        synchronized (chunks) {
+            chunk = chunks.get(key);
+        }
+        if (chunk != null) {
+            return chunk;
+        }
+        chunk = generateChunk(chunkRow, chunkCol);  //not holding the lock, other players keep moving
+        synchronized (chunks) {
+            Maze other = chunks.get(key);
+            if (other != null) {
+                return other;   //generated meanwhile by another player, the same maze
+            }
+            chunks.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    private Maze generateChunk(int chunkRow, int chunkCol) {
+        Maze chunk = new Maze(CHUNK_SIZE, CHUNK_SIZE, hash(chunkRow, chunkCol, 0), null, false);
+        chunk.openBorder(0, door(chunkRow, chunkCol, 1));        //top, shared with the chunk above
+        chunk.openBorder(3, door(chunkRow, chunkCol, 2));        //left
+        chunk.openBorder(2, door(chunkRow + 1, chunkCol, 1));    //bottom is the top of the chunk below
+        chunk.openBorder(1, door(chunkRow, chunkCol + 1, 2));    //right is the left of the next chunk
+        return chunk;
+    }
+
+    /**
+     * Place of the door in the top (side 1) or left (side 2) border of a chunk
+     */
+    private int door(int chunkRow, int chunkCol, int side) {
+        return (int) (hash(chunkRow, chunkCol, side) >>> (64 - CHUNK_SHIFT));
+    }
+
+    /**
+     * Mixes the seed with chunk coordinates (SplitMix64 finalizer)
+     */
+    private long hash(int chunkRow, int chunkCol, int salt) {
+        long z = seed + 0x9E3779B97F4A7C15L * (((long) chunkRow << 32 ^ (chunkCol & 0xffffffffL)) * 3 + salt + 1);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @param r     row, any int
+     * @param c     column, any int
+     * @param dest  0-up, 1-right, 2-down, 3-left
+     * @return      true if there is a wall
+     */
+    public boolean isWall(int r, int c, int dest) {
+        return getChunk(r, c).isWall(r & (CHUNK_SIZE - 1), c & (CHUNK_SIZE - 1), dest);
+    }
+
+    /**
+     * Player in this maze
+     *
+     * @param r     start row
+     * @param c     start column
+     * @return      cursor that never leaves the maze
+     */
+    public MazeCursor newCursor(int r, int c) {
+        return new Cursor(r, c);
+    }
+
+    /**
+     * Keeps the chunk of the player, the cache is used only when the player crosses a chunk border
+     */
+    private class Cursor extends MazeCursor {
+        private Maze chunk;
+        private int chunkRow;
+        private int chunkCol;
+
+        Cursor(int r, int c) {
+            super(null, r, c);
+            chunkRow = r >> CHUNK_SHIFT;
+            chunkCol = c >> CHUNK_SHIFT;
+            chunk = getChunk(r, c);
+        }
+
+        @Override
+        protected boolean isWall(int dest) {
+            if (row >> CHUNK_SHIFT != chunkRow || col >> CHUNK_SHIFT != chunkCol) {
+                chunkRow = row >> CHUNK_SHIFT;
+                chunkCol = col >> CHUNK_SHIFT;
+                chunk = getChunk(row, col);
+            }
+            return chunk.isWall(row & (CHUNK_SIZE - 1), col & (CHUNK_SIZE - 1), dest);
+        }
+
+        @Override
+        protected boolean isOut() {
+            return false;   //no exit
+        }
+
+        @Override
+        public int getHint() {
+            return -1;
+        }
+
+        @Override
+        public int distanceToExit() {
+            return -1;
+        }
+    }
+
+    /**
+     * @return  chunks in memory
+     */
+    public int getNumChunks() {
+        synchronized (chunks) {
+            return chunks.size();
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+}
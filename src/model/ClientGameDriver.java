@@ -1,42 +1,59 @@
 package model;
 
-import controller.ClientController;
-import view.ClientFrame;
-
-import java.util.HashSet;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 /**
  * Created by Vadim Shutenko on 20-Aug-18.
  *
+ * Client's map of the explored maze, coordinates are relative to the start cell.
+ *
+ * The map is made of chunks of CHUNK_SIZE x CHUNK_SIZE cells, added as the player explores.
+ * Per cell: 2 bits for the wall above, 2 bits for the wall on the left (UNKNOWN, OPEN, WALL)
+ * and a visited bit, all chunks in one long[]. Chunks are found by an open-addressing table
+ * keyed by the packed chunk coordinates. Lookups allocate nothing.
  */
 
 public class ClientGameDriver {
+    public static final int UNKNOWN = 0;    //wall states
+    public static final int OPEN = 1;
+    public static final int WALL = 2;
+
+    public static final int CHUNK_SIZE = 16;        //rows and columns of a chunk
+    private static final int CHUNK_SHIFT = 4;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int CELLS = CHUNK_SIZE * CHUNK_SIZE;
+    private static final int H_WORDS = 0;                   //wall above the cells, 32 cells per word
+    private static final int V_WORDS = CELLS / 32;          //wall left of the cells
+    private static final int VISITED_WORDS = 2 * CELLS / 32;    //visited bits, 64 cells per word
+    private static final int CHUNK_WORDS = 2 * CELLS / 32 + CELLS / 64;
 
-    private TreeMap <PointRC, Boolean> hWalls = new TreeMap<>();
-    private TreeMap <PointRC, Boolean> vWalls = new TreeMap<>();
-    private Set<PointRC> visited = new HashSet<>();
+    private long[] keys = new long[64];     //chunk coordinates by table slot
+    private int[] chunkIndexes = new int[64];   //chunk number + 1 by table slot, 0 - empty slot
+    private int numChunks;
+    private long[] chunks = new long[16 * CHUNK_WORDS];
+    private long lastKey;       //chunk found last, most lookups are near the player
+    private int lastBase = -1;
 
     private int posRow = 0;  //current position
     private int posCol = 0;
 
     public ClientGameDriver() {
-        visited.add(new PointRC(posRow, posCol));
+        setVisited(posRow, posCol);
     }
 
     public void addWall(char d, boolean isWall) {
+        int state = isWall ? WALL : OPEN;
         if (d == 'u') {
-            hWalls.put(new PointRC(posRow, posCol), isWall);
+            setWall(H_WORDS, posRow, posCol, state);
         }
         if (d == 'd') {
-            hWalls.put(new PointRC(posRow + 1, posCol), isWall);
+            setWall(H_WORDS, posRow + 1, posCol, state);
         }
         if (d == 'l') {
-            vWalls.put(new PointRC(posRow, posCol), isWall);
+            setWall(V_WORDS, posRow, posCol, state);
         }
         if (d == 'r') {
-            vWalls.put(new PointRC(posRow, posCol + 1), isWall);
+            setWall(V_WORDS, posRow, posCol + 1, state);
         }
     }
 
@@ -45,23 +62,44 @@ public class ClientGameDriver {
         if (d == 'd') posRow ++;
         if (d == 'l') posCol --;
         if (d == 'r') posCol ++;
-        //System.out.println("Game move: " + d + " (r, c)= " + posRow + " " + posCol);
-        visited.add(new PointRC(posRow, posCol));
+        setVisited(posRow, posCol);
     }
 
+    /**
+     * @return  wall above the cell: true, false, null - unknown
+     */
     public Boolean getHWall(int r, int c) {
-        PointRC point = new PointRC(r, c);
-        return hWalls.get(point);
+        return toBoolean(getHWallState(r, c));
     }
 
+    /**
+     * @return  wall left of the cell: true, false, null - unknown
+     */
     public Boolean getVWall(int r, int c) {
-        PointRC point = new PointRC(r, c);
-        return vWalls.get(point);
+        return toBoolean(getVWallState(r, c));
+    }
+
+    /**
+     * @return  UNKNOWN, OPEN or WALL above the cell
+     */
+    public int getHWallState(int r, int c) {
+        return getWall(H_WORDS, r, c);
+    }
+
+    /**
+     * @return  UNKNOWN, OPEN or WALL left of the cell
+     */
+    public int getVWallState(int r, int c) {
+        return getWall(V_WORDS, r, c);
     }
 
     public boolean isCellVisited(int r, int c) {
-        //System.out.println("vis rc" + r + " " + c+ " " + visited.contains(new PointRC(r, c)));
-        return visited.contains(new PointRC(r, c));
+        int base = findChunk(r, c, false);
+        if (base < 0) {
+            return false;
+        }
+        int cell = cellIndex(r, c);
+        return (chunks[base + VISITED_WORDS + (cell >>> 6)] & (1L << cell)) != 0;
     }
 
     public int getCurrentRow() {
@@ -71,4 +109,122 @@ public class ClientGameDriver {
     public int getCurrentCol() {
         return posCol;
     }
+
+    /**
+     * @return  chunks of the map, each of CHUNK_SIZE x CHUNK_SIZE cells
+     */
+    public int getNumChunks() {
+        return numChunks;
+    }
+
+    /**
+     * @return  top left cell of every chunk, row << 32 | column
+     */
+    public long[] getChunkCorners() {
+        long[] corners = new long[numChunks];
+        int n = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (chunkIndexes[slot] != 0) {
+                long chunkRow = keys[slot] >> 32;
+                long chunkCol = (int) keys[slot];
+                corners[n++] = chunkRow << CHUNK_SHIFT << 32 | (chunkCol << CHUNK_SHIFT & 0xffffffffL);
+            }
+        }
+        return corners;
+    }
+
+    private static Boolean toBoolean(int state) {
+        return state == UNKNOWN ? null : state == WALL;
+    }
+
+    private static int cellIndex(int r, int c) {
+        return (r & CHUNK_MASK) << CHUNK_SHIFT | (c & CHUNK_MASK);
+    }
+
+    private int getWall(int words, int r, int c) {
+        int base = findChunk(r, c, false);
+        if (base < 0) {
+            return UNKNOWN;
+        }
+        int cell = cellIndex(r, c);
+        return (int) (chunks[base + words + (cell >>> 5)] >>> ((cell & 31) << 1)) & 3;
+    }
+
+    private void setWall(int words, int r, int c, int state) {
+        int base = findChunk(r, c, true);
+        int cell = cellIndex(r, c);
+        int word = base + words + (cell >>> 5);
+        int shift = (cell & 31) << 1;
+        chunks[word] = chunks[word] & ~(3L << shift) | (long) state << shift;
+    }
+
+    private void setVisited(int r, int c) {
+        int base = findChunk(r, c, true);
+        int cell = cellIndex(r, c);
+        chunks[base + VISITED_WORDS + (cell >>> 6)] |= 1L << cell;
+    }
+
+    /**
+     * Start of the chunk of the cell in chunks[]
+     *
+     * @param create    add the chunk if it is not there
+     * @return          offset, -1 if there is no such chunk and create is false
+     */
+    private int findChunk(int r, int c, boolean create) {
+        long key = (long) (r >> CHUNK_SHIFT) << 32 | ((c >> CHUNK_SHIFT) & 0xffffffffL);
+        if (key == lastKey && lastBase >= 0) {
+            return lastBase;
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (chunkIndexes[slot] != 0) {
+            if (keys[slot] == key) {
+                lastKey = key;
+                lastBase = (chunkIndexes[slot] - 1) * CHUNK_WORDS;
+                return lastBase;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) {
+            return -1;
+        }
+
+        if ((numChunks + 1) * CHUNK_WORDS > chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        keys[slot] = key;
+        chunkIndexes[slot] = ++numChunks;
+        if (numChunks * 2 > keys.length) {
+            rehash();
+        }
+        lastKey = key;
+        lastBase = (numChunks - 1) * CHUNK_WORDS;
+        return lastBase;
+    }
+
+    /**
+     * Doubles the table, keeps it at most half full
+     */
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldIndexes = chunkIndexes;
+        keys = new long[oldKeys.length * 2];
+        chunkIndexes = new int[oldIndexes.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldIndexes[i] != 0) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (chunkIndexes[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                chunkIndexes[slot] = oldIndexes[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
 }
@@ -0,0 +1,328 @@
+package model;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distances to the exit of a maze, by breadth-first search from the exit cell.
+ *
+ * Two bits per cell: the distance modulo 3, or 3 if the exit cannot be reached. This is enough
+ * to find the way: neighbours in a grid are one step nearer or one step farther, never at the same
+ * distance, so the open neighbour with the code (code - 1) mod 3 is the next cell on a shortest path.
+ * A distance is the number of moves to get out of the maze, 1 from the exit cell.
+ *
+ * Cells whose distance is a multiple of CHECKPOINT also keep the whole distance, in a hash table
+ * (about 1 / CHECKPOINT of the cells). A shortest path passes one of them every CHECKPOINT moves,
+ * so a distance is found by following the hints at most CHECKPOINT moves.
+ *
+ * Levels of the search are expanded in parallel for large mazes; each cell is claimed
+ * with a compare-and-set of its bits, so a cell is taken by exactly one frontier cell.
+ *
+ * Immutable once built, shared by all players of the maze. Kept on the heap, so mazes larger than the heap
+ * (MappedMaze) may have no distances at all, see search().
+ */
+public class DistanceField {
+    private static final int UNREACHABLE = 3;
+    private static final int PARALLEL_CELLS = 1 << 18;  //smaller mazes are searched on the calling thread
+    private static final int TASK_CELLS = 1 << 12;      //frontier cells expanded by one task
+    private static final int HEAP_SHARE = 4;    //a field may take up to 1 / HEAP_SHARE of the maximum heap
+    private static final int CHECKPOINT = 256;  //levels with whole distances kept
+
+    private final MazeWalls maze;
+    private final int numRows;
+    private final int numCols;
+    private final long[] codes;     //32 cells per word, cell r * numCols + c
+    private final int exitCell;     //-1 if the maze has no exit
+    private final int exitDest;     //way out of the exit cell
+    private final long[] checkpoints;   //open addressing by cell: distance << 32 | cell + 1, 0 - empty slot
+
+    /**
+     * Searches the maze if its distances fit in the heap
+     *
+     * @param maze  maze with its exit set
+     * @return      distances, null if the maze is too large to be searched
+     */
+    public static DistanceField search(MazeWalls maze) {
+        long cells = (long) maze.getNumRows() * maze.getNumCols();
+        long bytes = cells / 4 + cells / CHECKPOINT * 32;   //codes, checkpoints at most a quarter full
+        if (cells > Integer.MAX_VALUE || bytes > Runtime.getRuntime().maxMemory() / HEAP_SHARE) {
+            return null;
+        }
+        try {
+            return new DistanceField(maze);
+        } catch (OutOfMemoryError e) {
+            return null;    //the frontiers did not fit, the maze stays without distances
+        }
+    }
+
+    /**
+     * Searches the maze, in parallel on the common pool if it is large
+     *
+     * @param maze  maze with its exit set
+     */
+    public DistanceField(MazeWalls maze) {
+        this(maze, (long) maze.getNumRows() * maze.getNumCols() >= PARALLEL_CELLS ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * @param maze  maze with its exit set
+     * @param pool  pool to expand large levels on, null - search on this thread
+     */
+    public DistanceField(MazeWalls maze, ForkJoinPool pool) {
+        this.maze = maze;
+        numRows = maze.getNumRows();
+        numCols = maze.getNumCols();
+        if ((long) numRows * numCols > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Maze of " + numRows + " x " + numCols + " cells is too large to search");
+        }
+        int cells = numRows * numCols;
+
+        int exit = maze.getExit();
+        if (exit < 0) {
+            exitCell = -1;
+            exitDest = -1;
+        } else if (exit < numCols) {
+            exitCell = exit;
+            exitDest = 0;
+        } else if (exit < 2 * numCols) {
+            exitCell = (numRows - 1) * numCols + exit - numCols;
+            exitDest = 2;
+        } else if (exit < 2 * numCols + numRows) {
+            exitCell = (exit - 2 * numCols) * numCols;
+            exitDest = 3;
+        } else {
+            exitCell = (exit - 2 * numCols - numRows) * numCols + numCols - 1;
+            exitDest = 1;
+        }
+
+        AtomicLongArray search = new AtomicLongArray((cells + 31) >>> 5);
+        for (int i = 0; i < search.length(); i++) {
+            search.lazySet(i, -1L);     //all unreachable
+        }
+        long[] found = new long[16];  //checkpoints found by the search, then put in the table
+        int numFound = 0;
+        if (exitCell >= 0) {
+            found = search(search, pool, found);
+            numFound = (int) found[0];
+        }
+        checkpoints = new long[Integer.highestOneBit(Math.max(8, numFound) * 2) * 2];
+        for (int i = 1; i <= numFound; i++) {
+            int slot = slot((int) found[i]);
+            while (checkpoints[slot] != 0) {
+                slot = (slot + 1) & (checkpoints.length - 1);
+            }
+            checkpoints[slot] = found[i] + 1;
+        }
+        codes = new long[search.length()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = search.get(i);
+        }
+    }
+
+    /**
+     * Level by level from the exit cell
+     *
+     * @param found     array for the checkpoints
+     * @return          found or a larger copy: [0] - number of checkpoints, then distance << 32 | cell
+     */
+    private long[] search(AtomicLongArray search, ForkJoinPool pool, long[] found) {
+        int[] frontier = {exitCell};
+        int size = 1;
+        int numFound = 0;
+        claim(search, exitCell, 1);
+        for (int distance = 2; size > 0; distance++) {
+            int code = distance % 3;
+            if (pool == null || size <= TASK_CELLS) {
+                Expansion next = new Expansion(search, frontier, 0, size, code);
+                frontier = next.expand();
+                size = next.size;
+            } else {
+                frontier = pool.invoke(new Expansion(search, frontier, 0, size, code));
+                size = frontier.length;
+            }
+            if (distance % CHECKPOINT == 0) {
+                if (numFound + size + 1 > found.length) {
+                    found = Arrays.copyOf(found, Math.max(found.length * 2, numFound + size + 1));
+                }
+                for (int i = 0; i < size; i++) {
+                    found[++numFound] = (long) distance << 32 | frontier[i];
+                }
+            }
+        }
+        found[0] = numFound;
+        return found;
+    }
+
+    private int slot(int cell) {
+        return (cell * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(checkpoints.length));
+    }
+
+    /**
+     * @return  distance of a checkpoint cell, 0 if the cell is not one
+     */
+    private int checkpoint(int cell) {
+        int mask = checkpoints.length - 1;
+        for (int slot = slot(cell); checkpoints[slot] != 0; slot = (slot + 1) & mask) {
+            if ((int) checkpoints[slot] == cell + 1) {
+                return (int) (checkpoints[slot] >>> 32);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Open neighbours of frontier[from, to) that were not reached yet; they get the code of the next level
+     */
+    private class Expansion extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;   //tasks are never serialized
+
+        private AtomicLongArray search;
+        private int[] frontier;
+        private int from;
+        private int to;
+        private int code;
+        int size;   //of the result, may be shorter than the array when expanded on the calling thread
+
+        Expansion(AtomicLongArray search, int[] frontier, int from, int to, int code) {
+            this.search = search;
+            this.frontier = frontier;
+            this.from = from;
+            this.to = to;
+            this.code = code;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from > TASK_CELLS) {
+                int middle = (from + to) >>> 1;
+                Expansion left = new Expansion(search, frontier, from, middle, code);
+                Expansion right = new Expansion(search, frontier, middle, to, code);
+                right.fork();
+                int[] first = left.compute();
+                int[] second = right.join();
+                int[] next = Arrays.copyOf(first, first.length + second.length);
+                System.arraycopy(second, 0, next, first.length, second.length);
+                return next;
+            }
+            int[] next = expand();
+            return next.length == size ? next : Arrays.copyOf(next, size);
+        }
+
+        int[] expand() {
+            int[] next = new int[Math.max(16, (to - from) * 2)];
+            size = 0;
+            for (int i = from; i < to; i++) {
+                int cell = frontier[i];
+                int r = cell / numCols;
+                int c = cell - r * numCols;
+                int walls = maze.getWalls(r, c);
+                if (size + 4 > next.length) {
+                    next = Arrays.copyOf(next, next.length * 2);
+                }
+                if ((walls & Maze.UP) == 0 && r > 0 && claim(search, cell - numCols, code)) {
+                    next[size++] = cell - numCols;
+                }
+                if ((walls & Maze.RIGHT) == 0 && c < numCols - 1 && claim(search, cell + 1, code)) {
+                    next[size++] = cell + 1;
+                }
+                if ((walls & Maze.DOWN) == 0 && r < numRows - 1 && claim(search, cell + numCols, code)) {
+                    next[size++] = cell + numCols;
+                }
+                if ((walls & Maze.LEFT) == 0 && c > 0 && claim(search, cell - 1, code)) {
+                    next[size++] = cell - 1;
+                }
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Sets the code of a cell that was not reached yet
+     *
+     * @return  false if the cell already has a distance
+     */
+    private static boolean claim(AtomicLongArray search, int cell, int code) {
+        int word = cell >>> 5;
+        int shift = (cell & 31) << 1;
+        while (true) {
+            long bits = search.get(word);
+            if ((bits >>> shift & 3) != UNREACHABLE) {
+                return false;
+            }
+            if (search.compareAndSet(word, bits, bits & ~(3L << shift) | (long) code << shift)) {
+                return true;
+            }
+        }
+    }
+
+    private int code(int r, int c) {
+        int cell = r * numCols + c;
+        return (int) (codes[cell >>> 5] >>> ((cell & 31) << 1)) & 3;
+    }
+
+    /**
+     * Best next move, O(1)
+     *
+     * @param r     row
+     * @param c     column
+     * @return      0-up, 1-right, 2-down, 3-left, -1 if the exit cannot be reached from here
+     */
+    public int getHint(int r, int c) {
+        int code = code(r, c);
+        if (code == UNREACHABLE) {
+            return -1;
+        }
+        if (r * numCols + c == exitCell) {
+            return exitDest;
+        }
+        int nearer = (code + 2) % 3;
+        int walls = maze.getWalls(r, c);
+        if ((walls & Maze.UP) == 0 && r > 0 && code(r - 1, c) == nearer) return 0;
+        if ((walls & Maze.RIGHT) == 0 && c < numCols - 1 && code(r, c + 1) == nearer) return 1;
+        if ((walls & Maze.DOWN) == 0 && r < numRows - 1 && code(r + 1, c) == nearer) return 2;
+        if ((walls & Maze.LEFT) == 0 && c > 0 && code(r, c - 1) == nearer) return 3;
+        return -1;
+    }
+
+    /**
+     * @param r     row
+     * @param c     column
+     * @return      true if there is a way out from the cell
+     */
+    public boolean isReachable(int r, int c) {
+        return code(r, c) != UNREACHABLE;
+    }
+
+    /**
+     * Fewest moves to get out, found by following the hints to the nearest checkpoint: at most CHECKPOINT moves
+     *
+     * @param r     row
+     * @param c     column
+     * @return      moves, -1 if the exit cannot be reached
+     */
+    public int getDistance(int r, int c) {
+        if (!isReachable(r, c)) {
+            return -1;
+        }
+        int moves = 0;
+        while (true) {
+            int cell = r * numCols + c;
+            if (cell == exitCell) {
+                return moves + 1;
+            }
+            int distance = checkpoint(cell);
+            if (distance > 0) {
+                return moves + distance;
+            }
+            int dest = getHint(r, c);
+            if (dest < 0) return -1;
+            if (dest == 0) r--;
+            if (dest == 1) c++;
+            if (dest == 2) r++;
+            if (dest == 3) c--;
+            moves++;
+        }
+    }
+}
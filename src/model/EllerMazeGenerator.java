@@ -0,0 +1,169 @@
+package model;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Streaming maze generator (Eller's algorithm): the maze is produced one row at a time
+ * and only O(columns) state is kept, so the number of rows is practically unbounded.
+ *
+ * Rows have the bit layout of Maze: bit c of the horizontal walls is the wall above column c,
+ * bit c of the vertical walls is the wall left of column c (bit numCols - the right border).
+ * The maze is perfect, with all border walls closed.
+ */
+public class EllerMazeGenerator {
+    private int numCols;
+    private Random random;
+    private long randomBits;    //taken one by one, refilled from random every 64 bits
+    private int randomBitsLeft;
+
+    //state of the current row, indexed by column
+    private int[] sets;         //set of the cell, -1 for a new one, as carried down from the row above
+    private int[] parent;       //union-find of the columns of the current row
+    private int[] first;        //first column of the row that got a set from above, by set
+    private int[] remaining;    //cells of a set not decided yet, by root column
+    private boolean[] opened;   //set already has a passage down, by root column
+
+    private long[] above;       //walls above the current row
+    private long[] vertical;    //walls left of the cells of the current row
+    private long[] below;       //walls below the current row
+
+    /**
+     * Receives the rows. The arrays are reused for the next row, copy them to keep them.
+     */
+    public interface RowSink {
+        /**
+         * @param r             row number from 0
+         * @param hWalls        walls above row r, (numCols + 63) / 64 words
+         * @param vWalls        walls left of the cells of row r, (numCols + 64) / 64 words
+         */
+        void row(long r, long[] hWalls, long[] vWalls) throws IOException;
+
+        /**
+         * @param hWalls    walls below the last row
+         */
+        void end(long[] hWalls) throws IOException;
+    }
+
+    /**
+     * @param numCols   columns, at least 1
+     * @param random    random numbers
+     */
+    public EllerMazeGenerator(int numCols, Random random) {
+        if (numCols < 1) {
+            throw new IllegalArgumentException("Maze must have columns");
+        }
+        this.numCols = numCols;
+        this.random = random;
+        sets = new int[numCols];
+        parent = new int[numCols];
+        first = new int[numCols];
+        remaining = new int[numCols];
+        opened = new boolean[numCols];
+        above = new long[(numCols + 63) >>> 6];
+        vertical = new long[(numCols + 1 + 63) >>> 6];
+        below = new long[above.length];
+    }
+
+    /**
+     * Generates a maze and passes its rows to the sink
+     *
+     * @param numRows   rows, at least 1
+     * @param sink      receiver of the rows
+     * @throws IOException  if the sink fails
+     */
+    public void generate(long numRows, RowSink sink) throws IOException {
+        if (numRows < 1) {
+            throw new IllegalArgumentException("Maze must have rows");
+        }
+        Arrays.fill(sets, -1);
+        fill(above, numCols);
+        for (long r = 0; r < numRows; r++) {
+            boolean last = r == numRows - 1;
+            joinFromAbove();
+
+            // passages to the right: random, but always between different sets in the last row
+            fill(vertical, numCols + 1);
+            for (int c = 0; c < numCols - 1; c++) {
+                int a = find(c);
+                int b = find(c + 1);
+                if (a != b && (last || randomBit())) {
+                    vertical[(c + 1) >>> 6] &= ~(1L << (c + 1));
+                    parent[Math.max(a, b)] = Math.min(a, b);
+                }
+            }
+            sink.row(r, above, vertical);
+
+            // passages down: random, but at least one per set
+            fill(below, numCols);
+            if (!last) {
+                for (int c = 0; c < numCols; c++) {
+                    int root = find(c);
+                    remaining[root]++;
+                    opened[root] = false;
+                }
+                for (int c = 0; c < numCols; c++) {
+                    int root = find(c);
+                    remaining[root]--;
+                    if (randomBit() || (remaining[root] == 0 && !opened[root])) {
+                        opened[root] = true;
+                        below[c >>> 6] &= ~(1L << c);
+                        sets[c] = root;
+                    } else {
+                        sets[c] = -1;
+                    }
+                }
+            }
+            long[] swap = above;
+            above = below;
+            below = swap;
+        }
+        sink.end(above);
+    }
+
+    /**
+     * Builds the union-find of the current row: cells that came down from one set are joined
+     */
+    private void joinFromAbove() {
+        Arrays.fill(first, -1);
+        for (int c = 0; c < numCols; c++) {
+            int set = sets[c];
+            if (set < 0 || first[set] < 0) {
+                parent[c] = c;
+                if (set >= 0) first[set] = c;
+            } else {
+                parent[c] = first[set];
+            }
+        }
+    }
+
+    private boolean randomBit() {
+        if (randomBitsLeft == 0) {
+            randomBits = random.nextLong();
+            randomBitsLeft = 64;
+        }
+        randomBitsLeft--;
+        boolean bit = (randomBits & 1) != 0;
+        randomBits >>>= 1;
+        return bit;
+    }
+
+    private int find(int c) {
+        while (parent[c] != c) {
+            parent[c] = parent[parent[c]];
+            c = parent[c];
+        }
+        return c;
+    }
+
+    /**
+     * Sets the first n bits, the rest stays 0
+     */
+    private static void fill(long[] row, int n) {
+        for (int w = 0; w < row.length; w++) {
+            int bits = Math.min(64, n - w * 64);
+            row[w] = bits == 64 ? -1L : (1L << bits) - 1;
+        }
+    }
+}
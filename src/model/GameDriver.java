@@ -10,34 +10,70 @@ import java.util.Random;
  */
 
 public class GameDriver {
-    private Maze maze;
     private static final int MIN_COL = 3;
     private static final int MIN_ROW = 3;
     private static final int MAX_COL = 7;
     private static final int MAX_ROW = 7;
+    public static final int MAX_BATCH = 256;    //moves in one "moves" request, longer ones are rejected
+    private static final String DIRECTIONS = "urdl";  //by dest
+    private static final String[] STATUSES = {"Connected, not started", "Game started", "Exit found"};  //by cursor status
+    private static final String[] RESULTS = {"yes", "no", "exit", "game_stopped"};   //by move result
+    private static final String[] HINTS = {"up", "right", "down", "left"};  //by dest
     private static Random random = new Random();
-    private String status = "Connected, not started";
     private ServerController controller;
 
-    //player's position
-    private PointRC point;
+    //player's position and status, the maze may be shared with other players
+    private MazeCursor cursor;
 
+    /**
+     * Game in the server's endless or shared maze if there is one, otherwise in a new small maze
+     * @param controller
+     */
     public GameDriver (ServerController controller) {
         this(controller, MAX_ROW / 2, MAX_COL / 2);
     }
 
     private GameDriver (ServerController controller, int nRows, int nCols) {
         this.controller = controller;
+        ChunkedMaze world = controller.getEndlessMaze();
+        if (world != null) {
+            cursor = world.newCursor(random.nextInt(ChunkedMaze.CHUNK_SIZE), random.nextInt(ChunkedMaze.CHUNK_SIZE));
+            return;
+        }
+        MazeWalls shared = controller.getSharedMaze();
+        if (shared != null) {
+            DistanceField distances = shared.getDistances();
+            int r;
+            int c;
+            int tries = 0;
+            do {    //from where the exit can be reached, unless the maze has (almost) no such cells or no distances
+                r = random.nextInt(shared.getNumRows());
+                c = random.nextInt(shared.getNumCols());
+            } while (distances != null && !distances.isReachable(r, c) && ++tries < 16);
+            cursor = new MazeCursor(shared, r, c);
+            return;
+        }
         if (nCols < MIN_COL || nRows < MIN_ROW || nCols > MAX_COL || nRows > MAX_ROW) {
             throw new IllegalArgumentException("Maze size out of limits.");
         }
         // random size
         nRows = randomInLimits(MIN_ROW, nRows);
         nCols = randomInLimits(MIN_COL, nCols);
-        maze = new Maze(nRows, nCols);
-        maze.setRandomExit();
+        cursor = new MazeCursor(takeMaze(nRows, nCols), randomInLimits(0, nRows), randomInLimits(0, nCols));
+    }
 
-        point = new PointRC(randomInLimits(0, nRows), randomInLimits(0, nCols));
+    /**
+     * A maze with an exit: ready from the server's pool, or generated now if there is none
+     */
+    private Maze takeMaze(int nRows, int nCols) {
+        MazePool pool = controller.getMazePool();
+        Maze ready = pool == null ? null : pool.poll(nRows, nCols);
+        if (ready != null) {
+            controller.getMetrics().mazePoolHit();
+            return ready;
+        }
+        controller.getMetrics().mazePoolMiss();
+        return new Maze(nRows, nCols);
     }
 
     private int randomInLimits(int min, int max) {
@@ -49,48 +85,86 @@ public class GameDriver {
         return n;
     }
 
+    /**
+     * Answers a client's request. The answer has the id of the request.
+     *
+     * Requests: "move up" (down, left, right) - one move, answer "move up=yes" (no, exit, game_stopped);
+     * "moves urdl" - moves in order until the first wall or the exit, answer "moves u=yes r=yes d=no",
+     * "moves error=too_many" and no move if there are more than MAX_BATCH;
+     * "hint" - best next move, answer "hint up" (right, down, left, none);
+     * "score" - answer "score moves=12 optimal=9", optimal is -1 if unknown.
+     *
+     * @param message   request
+     * @return          answer
+     */
     public Message getAnswer(Message message) {
+        long start = System.nanoTime();
+        Message answer = answer(message);
+        controller.getMetrics().requestHandled(System.nanoTime() - start);
+        return answer;
+    }
+
+    private Message answer(Message message) {
         if (message.getType() == Message.Type.REQUEST) {
-            status = "Game started";
-            controller.refreshGuiClients();
+            if (cursor.start()) {
+                controller.refreshGuiClients();
+            }
+            if (message.getData().startsWith("moves ")) {
+                String directions = message.getData().substring(6);
+                if (directions.length() > MAX_BATCH) {
+                    return message.justAnswer("moves error=too_many");
+                }
+                StringBuilder answer = new StringBuilder("moves");
+                for (int i = 0; i < directions.length(); i++) {
+                    int dest = DIRECTIONS.indexOf(directions.charAt(i));
+                    if (dest < 0) break;
+                    String result = move(dest);
+                    answer.append(' ').append(directions.charAt(i)).append('=').append(result);
+                    if (!result.equals("yes")) break;
+                }
+                return message.justAnswer(answer.toString());
+            }
+            if (message.getData().equals("hint")) {
+                int dest = cursor.getHint();
+                return message.justAnswer("hint " + (dest < 0 ? "none" : HINTS[dest]));
+            }
+            if (message.getData().equals("score")) {
+                return message.justAnswer("score moves=" + cursor.getMoves() + " optimal=" + cursor.getOptimalMoves());
+            }
             if (message.getData().startsWith("move ")) {
                 String command = message.getData().substring(0, 7); //ex: move dn
                 int dest = 3;
                 if (command.charAt(5) == 'u') dest = 0;
                 if (command.charAt(5) == 'r') dest = 1;
                 if (command.charAt(5) == 'd') dest = 2;
-
-                if (!outOfMaze(point)) {
-                    boolean yes = !maze.isWall(point.r, point.c, dest);
-                    if (yes) {
-                        if (dest == 0) point.r--;
-                        if (dest == 1) point.c++;
-                        if (dest == 2) point.r++;
-                        if (dest == 3) point.c--;
-
-                        if (outOfMaze(point)) {
-                            status = "Exit found";
-                            controller.refreshGuiClients();
-                            return new Message(Message.Type.ANSWER, command + "=exit");
-                        } else {
-                            return new Message(Message.Type.ANSWER, command + "=yes");
-                        }
-                    } else {
-                        return new Message(Message.Type.ANSWER, command + "=no");
-                    }
-                } else {
-                    return new Message(Message.Type.ANSWER, command + "=game_stopped");
-                }
+                return message.justAnswer(command + "=" + move(dest));
             }
         }
-        return new Message(Message.Type.ANSWER, "Request not recognized: " + message.getData());
+        controller.getMetrics().requestUnrecognized();
+        return message.justAnswer("Request not recognized: " + message.getData());
     }
 
-    private boolean outOfMaze(PointRC point) {
-        return (point.r < 0 || point.r >= maze.getNumRows() || point.c < 0 || point.c >= maze.getNumCols());
+    /**
+     * Moves the player if there is no wall
+     *
+     * @param dest  0-up, 1-right, 2-down, 3-left
+     * @return      yes, no, exit or game_stopped
+     */
+    private String move(int dest) {
+        int result = cursor.move(dest);
+        if (result == MazeCursor.EXIT) {
+            controller.refreshGuiClients();
+        }
+        String answer = RESULTS[result];
+        controller.getMetrics().moveAnswered(answer);
+        return answer;
     }
-    
+
     public String getStatus() {
-        return status;
+        int status = cursor.getStatus();
+        if (status == MazeCursor.EXIT_FOUND && cursor.getOptimalMoves() > 0) {
+            return STATUSES[status] + ": " + cursor.getMoves() + " moves, best " + cursor.getOptimalMoves();
+        }
+        return STATUSES[status];
     }
 }
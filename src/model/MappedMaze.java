@@ -0,0 +1,171 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Maze read from a MazeFile through a read-only memory mapping. Walls are not copied to the heap,
+ * isWall reads the mapped pages, so the maze may be larger than the heap and the operating system
+ * shares one cached copy between all processes that map the file.
+ *
+ * Immutable, may be used by any number of threads: the fields are final, the distances are searched once
+ * under a lock.
+ */
+public class MappedMaze implements MazeWalls {
+    private static final int SEGMENT_SHIFT = 30;    //files are mapped in parts of 1 GB
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private final int numRows;
+    private final int numCols;
+    private final long seed;
+    private final int exit;
+    private final int hStride;
+    private final int vStride;
+    private final long vOffset;   //byte offset of the vertical walls
+    private final MappedByteBuffer[] segments;
+    private DistanceField distances;   //on the heap, 2 bits per cell; none if it does not fit
+    private volatile boolean searched;  //distances were searched, written after them
+
+    MappedMaze(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(MazeFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) break;
+            }
+            header.flip();
+            if (header.remaining() < MazeFile.HEADER_SIZE || header.getInt() != MazeFile.MAGIC) {
+                throw new IOException(file + " is not a maze file");
+            }
+            int version = header.getInt();
+            if (version != MazeFile.VERSION) {
+                throw new IOException(file + ": unsupported maze file version " + version);
+            }
+            numRows = header.getInt();
+            numCols = header.getInt();
+            seed = header.getLong();
+            exit = header.getInt();
+            if (numRows < 1 || numCols < 1) {
+                throw new IOException(file + ": bad maze dimensions " + numRows + " x " + numCols);
+            }
+            hStride = MazeFile.hStride(numCols);
+            vStride = MazeFile.vStride(numCols);
+            vOffset = MazeFile.HEADER_SIZE + (numRows + 1L) * hStride * 8;
+            long expected = vOffset + (long) numRows * vStride * 8;
+            if (size < expected) {
+                throw new IOException(file + " is truncated: " + size + " bytes of " + expected);
+            }
+
+            segments = new MappedByteBuffer[(int) ((expected + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(expected - position, 1L << SEGMENT_SHIFT));
+                segments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }   //the mapping stays valid after the channel is closed
+    }
+
+    /**
+     * Long at a byte offset, multiple of 8, so it never crosses two segments
+     */
+    private long word(long offset) {
+        return segments[(int) (offset >>> SEGMENT_SHIFT)].getLong((int) (offset & SEGMENT_MASK));
+    }
+
+    private boolean hWall(int r, int c) {
+        return (word(MazeFile.HEADER_SIZE + ((long) r * hStride + (c >>> 6)) * 8) & (1L << c)) != 0;
+    }
+
+    private boolean vWall(int r, int c) {
+        return (word(vOffset + ((long) r * vStride + (c >>> 6)) * 8) & (1L << c)) != 0;
+    }
+
+    @Override
+    public boolean isWall(int r, int c, int dest) {  //0-up, 1-right, 2-down, 3-left
+        if (r < 0 || c < 0 || r >= numRows || c >= numCols) {
+            throw new IllegalArgumentException("arguments out of maze bounds " + numRows + ", " + numCols);
+        }
+        switch (dest) {
+            case 0:
+                return hWall(r, c);
+            case 1:
+                return vWall(r, c + 1);
+            case 2:
+                return hWall(r + 1, c);
+            default:
+                return vWall(r, c);
+        }
+    }
+
+    @Override
+    public int getWalls(int r, int c) {
+        if (r < 0 || c < 0 || r >= numRows || c >= numCols) {
+            throw new IllegalArgumentException("arguments out of maze bounds " + numRows + ", " + numCols);
+        }
+        int walls = 0;
+        if (hWall(r, c)) walls |= Maze.UP;
+        if (vWall(r, c + 1)) walls |= Maze.RIGHT;
+        if (hWall(r + 1, c)) walls |= Maze.DOWN;
+        if (vWall(r, c)) walls |= Maze.LEFT;
+        return walls;
+    }
+
+    @Override
+    public long getHWallsWord(int r, int word) {
+        if (r < 0 || r > numRows || word < 0 || word >= hStride) {
+            throw new IllegalArgumentException("arguments out of maze bounds " + numRows + ", " + numCols);
+        }
+        return word(MazeFile.HEADER_SIZE + ((long) r * hStride + word) * 8);
+    }
+
+    @Override
+    public long getVWallsWord(int r, int word) {
+        if (r < 0 || r >= numRows || word < 0 || word >= vStride) {
+            throw new IllegalArgumentException("arguments out of maze bounds " + numRows + ", " + numCols);
+        }
+        return word(vOffset + ((long) r * vStride + word) * 8);
+    }
+
+    @Override
+    public int getNumRows() {
+        return numRows;
+    }
+
+    @Override
+    public int getNumCols() {
+        return numCols;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public int getExit() {
+        return exit;
+    }
+
+    /**
+     * Distances to the exit, searched on the first call
+     *
+     * @return  distances, null if the maze is too large to be searched
+     */
+    @Override
+    public DistanceField getDistances() {
+        if (!searched) {
+            synchronized (this) {
+                if (!searched) {
+                    distances = DistanceField.search(this);
+                    searched = true;
+                }
+            }
+        }
+        return distances;
+    }
+}
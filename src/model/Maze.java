@@ -1,42 +1,94 @@
 package model;
 
+import java.util.Arrays;
 import java.util.Random;
-import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Created by Vadim Shutenko on 29-Aug-18.
  *
  * Class Maze creates and keeps a random maze
+ *
+ * Walls are bits in long[] arrays, each row of walls starts at a new word:
+ * hWalls - numRows + 1 rows of numCols walls above the cells (the last row is below the maze),
+ * vWalls - numRows rows of numCols + 1 walls left of the cells (the last one is right of the maze).
+ * Bit c of a row (word c / 64, bit c % 64) is the wall of column c.
+ *
+ * The exit is opened when the maze is generated, after that the maze is only read: one maze may be shared
+ * by any number of players (MazeCursor) on any threads without locking.
  */
-public class Maze {
-    private int numRows;
-    private int numCols;
-    private int[][] vWalls;
-    private int[][] hWalls;
-    private Random random = new Random();
+public class Maze implements MazeWalls {
+    public static final int UP = 1;     //bits of getWalls(), by dest
+    public static final int RIGHT = 2;
+    public static final int DOWN = 4;
+    public static final int LEFT = 8;
+    public static final int MIN_SIZE = 3;
+    public static final int MAX_SIZE = 10000;   //rows or columns: up to 10^8 cells
+    private static final int REGION_SIZE = 256;    //rows and columns of a region generated in parallel, multiple of 64
+
+    private final int numRows;
+    private final int numCols;
+    private final int hStride;    //words per row
+    private final int vStride;
+    private final long[] vWalls;
+    private final long[] hWalls;
+    private final long seed;
+    private final Random random;
+    private final int exit;     //see getExit()
+    private DistanceField distances;
+    private volatile boolean searched;  //distances were searched, written after them
 
     public Maze(int numRows, int numCols) {
-        if (numCols < 3 || numRows < 3 || numCols > 100 || numRows > 100) {
-            throw new IllegalArgumentException("Maze dimensions are out of limits (3-100)");
+        this(numRows, numCols, null);
+    }
+
+    /**
+     * Maze that is the same every time for the same seed
+     *
+     * @param numRows   rows
+     * @param numCols   columns
+     * @param seed      seed of the random numbers
+     */
+    public Maze(int numRows, int numCols, long seed) {
+        this(numRows, numCols, seed, null, true);
+    }
+
+    /**
+     * Maze generated in parallel for large sizes, see generateParallel()
+     *
+     * @param numRows   rows
+     * @param numCols   columns
+     * @param pool      pool to generate regions on, null - generate on this thread
+     */
+    public Maze(int numRows, int numCols, ForkJoinPool pool) {
+        this(numRows, numCols, ThreadLocalRandom.current().nextLong(), pool, true);
+    }
+
+    /**
+     * @param withExit  open a random exit, otherwise the maze has none, ex: a chunk of a ChunkedMaze
+     */
+    Maze(int numRows, int numCols, long seed, ForkJoinPool pool, boolean withExit) {
+        if (numCols < MIN_SIZE || numRows < MIN_SIZE || numCols > MAX_SIZE || numRows > MAX_SIZE) {
+            throw new IllegalArgumentException("Maze dimensions are out of limits (" + MIN_SIZE + "-" + MAX_SIZE + ")");
         }
         this.numRows = numRows;
         this.numCols = numCols;
+        this.seed = seed;
+        random = new Random(seed);
 
-        vWalls = new int[numRows][numCols + 1];
-        hWalls = new int[numRows + 1][numCols];
+        hStride = (numCols + 63) >>> 6;
+        vStride = (numCols + 1 + 63) >>> 6;
+        hWalls = new long[(numRows + 1) * hStride];
+        vWalls = new long[numRows * vStride];
 
-        for (int x = 0; x < numCols + 1; x++) {
-            for (int y = 0; y < numRows; y++) {
-                vWalls[y][x] = 1;
-            }
-        }
-        for (int x = 0; x < numCols; x++) {
-            for (int y = 0; y < numRows + 1; y++) {
-                hWalls[y][x] = 1;
-            }
+        if (pool == null || (numRows <= REGION_SIZE && numCols <= REGION_SIZE)) {
+            generateMaze(random.nextInt(numRows), random.nextInt(numCols));
+        } else {
+            generateParallel(pool);
         }
-
-        generateMaze(random.nextInt(numRows), random.nextInt(numCols));
+        exit = withExit ? openRandomExit() : -1;
     }
 
     /**
@@ -45,137 +97,395 @@ public class Maze {
      * @param c0    column  (x)
      */
     private void generateMaze(int r0, int c0) {
-        for (int x = 0; x < numCols + 1; x++) {
-            for (int y = 0; y < numRows; y++) {
-                vWalls[y][x] = 1;
+        fillRows(hWalls, hStride, numCols);
+        fillRows(vWalls, vStride, numCols + 1);
+        carve(0, 0, numRows, numCols, r0, c0, random);
+    }
+
+    /**
+     * Generates maze as regions of REGION_SIZE x REGION_SIZE cells carved concurrently.
+     *
+     * Each region is a perfect maze of its own, then the regions are joined by one passage
+     * per edge of a random spanning tree of the region grid, so there is still exactly one path
+     * between any two cells. Region widths are multiples of 64, so no two tasks write the same wall word.
+     *
+     * @param pool  fork-join pool
+     */
+    private void generateParallel(ForkJoinPool pool) {
+        fillRows(hWalls, hStride, numCols);
+        fillRows(vWalls, vStride, numCols + 1);
+
+        int regionRows = (numRows + REGION_SIZE - 1) / REGION_SIZE;
+        int regionCols = (numCols + REGION_SIZE - 1) / REGION_SIZE;
+        pool.invoke(new CarveRegions(0, regionRows * regionCols, regionCols));
+
+        // random spanning tree of the regions: depth-first search with backtracking, as for cells
+        int numRegions = regionRows * regionCols;
+        long[] visited = new long[(numRegions + 63) >>> 6];
+        int[] stack = new int[numRegions];
+        int size = 0;
+        int[] destsN = new int[4];
+        int first = random.nextInt(numRegions);
+        visited[first >>> 6] |= 1L << first;
+        stack[size++] = first;
+        while (size > 0) {
+            int region = stack[size - 1];
+            int rr = region / regionCols;
+            int rc = region - rr * regionCols;
+            int kN = 0;
+            if (rr > 0 && !isSet(visited, region - regionCols)) destsN[kN++] = 0;
+            if (rc < regionCols - 1 && !isSet(visited, region + 1)) destsN[kN++] = 1;
+            if (rr < regionRows - 1 && !isSet(visited, region + regionCols)) destsN[kN++] = 2;
+            if (rc > 0 && !isSet(visited, region - 1)) destsN[kN++] = 3;
+            if (kN == 0) {
+                size--;
+                continue;
             }
+            int top = rr * REGION_SIZE;
+            int left = rc * REGION_SIZE;
+            int rows = Math.min(REGION_SIZE, numRows - top);
+            int cols = Math.min(REGION_SIZE, numCols - left);
+            int neighbour;
+            switch (destsN[random.nextInt(kN)]) {   //a door in the shared border
+                case 0:
+                    clearHWall(top, left + random.nextInt(cols));
+                    neighbour = region - regionCols;
+                    break;
+                case 1:
+                    clearVWall(top + random.nextInt(rows), left + cols);
+                    neighbour = region + 1;
+                    break;
+                case 2:
+                    clearHWall(top + rows, left + random.nextInt(cols));
+                    neighbour = region + regionCols;
+                    break;
+                default:
+                    clearVWall(top + random.nextInt(rows), left);
+                    neighbour = region - 1;
+            }
+            visited[neighbour >>> 6] |= 1L << neighbour;
+            stack[size++] = neighbour;
         }
-        for (int x = 0; x < numCols; x++) {
-            for (int y = 0; y < numRows + 1; y++) {
-                hWalls[y][x] = 1;
+    }
+
+    /**
+     * Carves regions [from, to) of the region grid, splitting the range between tasks
+     */
+    private class CarveRegions extends RecursiveAction {
+        private static final long serialVersionUID = 1L;   //tasks are never serialized
+
+        private int from;
+        private int to;
+        private int regionCols;
+
+        CarveRegions(int from, int to, int regionCols) {
+            this.from = from;
+            this.to = to;
+            this.regionCols = regionCols;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CarveRegions(from, middle, regionCols), new CarveRegions(middle, to, regionCols));
+                return;
             }
+            int top = from / regionCols * REGION_SIZE;
+            int left = from % regionCols * REGION_SIZE;
+            int rows = Math.min(REGION_SIZE, numRows - top);
+            int cols = Math.min(REGION_SIZE, numCols - left);
+            Random random = new Random(seed + 0x9E3779B97F4A7C15L * (from + 1));    //the same regions for the same seed
+            carve(top, left, rows, cols, top + random.nextInt(rows), left + random.nextInt(cols), random);
         }
+    }
 
-        boolean[][] visited = new boolean[numRows][numCols];
-        Stack<Cell> stack = new Stack<>();
-        stack.push(new Cell(r0, c0));
-        Cell[] cellsN = new Cell[4];  //for unvisited neighbours
+    /**
+     * Carves a perfect maze inside a rectangle beginning from (r0, c0) cell:
+     * depth-first search with backtracking. Walls on the border of the rectangle are kept.
+     *
+     * The path is kept in an int stack of cells (r * cols + c, relative to the rectangle),
+     * visited cells in a bit set, so nothing is allocated per step.
+     *
+     * @param top       first row of the rectangle
+     * @param left      first column
+     * @param rows      rows
+     * @param cols      columns
+     * @param r0        start row
+     * @param c0        start column
+     * @param random    random numbers for this thread
+     */
+    private void carve(int top, int left, int rows, int cols, int r0, int c0, Random random) {
+        long[] visited = new long[(int) (((long) rows * cols + 63) >>> 6)];
+        int[] stack = new int[Math.max(16, Math.min(rows * cols, 1 << 20))];
+        int size = 0;
+        int[] destsN = new int[4];  //for unvisited neighbours
+
+        int start = (r0 - top) * cols + (c0 - left);
+        visited[start >>> 6] |= 1L << start;
+        stack[size++] = start;
 
-        while (!stack.empty()) {
-            Cell cell = stack.pop();
+        while (size > 0) {
+            int cell = stack[size - 1];
+            int r = cell / cols;
+            int c = cell - r * cols;
             int kN = 0;
-            if (cell.r > 0 && !visited[cell.r - 1][cell.c]) {
-                cellsN[kN++] = new Cell(cell.r - 1, cell.c);
+            if (r > 0 && !isSet(visited, cell - cols)) {
+                destsN[kN++] = 0;
             }
-            if (cell.c > 0 && !visited[cell.r][cell.c - 1]) {
-                cellsN[kN++] = new Cell(cell.r, cell.c - 1);
+            if (c < cols - 1 && !isSet(visited, cell + 1)) {
+                destsN[kN++] = 1;
             }
-            if (cell.r < numRows - 1 && !visited[cell.r + 1][cell.c]) {
-                cellsN[kN++] = new Cell(cell.r + 1, cell.c);
+            if (r < rows - 1 && !isSet(visited, cell + cols)) {
+                destsN[kN++] = 2;
             }
-            if (cell.c < numCols - 1 && !visited[cell.r][cell.c + 1]) {
-                cellsN[kN++] = new Cell(cell.r, cell.c + 1);
+            if (c > 0 && !isSet(visited, cell - 1)) {
+                destsN[kN++] = 3;
             }
 
-            if (kN > 0) {
-                int n = random.nextInt(kN);
-                Cell neighbour = cellsN[n];
-                //remove wall(current, neighbour);
-                if (neighbour.r == cell.r) {
-                    if (neighbour.c < cell.c) vWalls[cell.r][cell.c] = 0; //left
-                    else vWalls[cell.r][cell.c + 1] = 0;    //right
-                }
-                if (neighbour.c == cell.c) { //left
-                    if (neighbour.r < cell.r) hWalls[cell.r][cell.c] = 0; //up
-                    else hWalls[cell.r + 1][cell.c] = 0;    //down
-                }
-                visited[neighbour.r][neighbour.c] = true;
-                stack.push(cell);
-                stack.push(neighbour);
+            if (kN == 0) {
+                size--;     //dead end, back to the previous cell
+                continue;
+            }
+            int neighbour;
+            //remove wall(current, neighbour);
+            switch (destsN[random.nextInt(kN)]) {
+                case 0:
+                    clearHWall(top + r, left + c);
+                    neighbour = cell - cols;
+                    break;
+                case 1:
+                    clearVWall(top + r, left + c + 1);
+                    neighbour = cell + 1;
+                    break;
+                case 2:
+                    clearHWall(top + r + 1, left + c);
+                    neighbour = cell + cols;
+                    break;
+                default:
+                    clearVWall(top + r, left + c);
+                    neighbour = cell - 1;
+            }
+            visited[neighbour >>> 6] |= 1L << neighbour;
+            if (size == stack.length) {
+                stack = Arrays.copyOf(stack, (int) Math.min((long) stack.length * 2, (long) rows * cols));
+            }
+            stack[size++] = neighbour;
+        }
+    }
+
+    private static boolean isSet(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Sets the first n bits of every row, spare bits stay 0
+     */
+    private static void fillRows(long[] walls, int stride, int n) {
+        for (int row = 0; row < walls.length; row += stride) {
+            for (int w = 0; w < stride; w++) {
+                int bits = Math.min(64, n - w * 64);
+                walls[row + w] = bits == 64 ? -1L : (1L << bits) - 1;
             }
         }
     }
 
+    private boolean hWall(int r, int c) {
+        return (hWalls[r * hStride + (c >>> 6)] & (1L << c)) != 0;
+    }
+
+    private boolean vWall(int r, int c) {
+        return (vWalls[r * vStride + (c >>> 6)] & (1L << c)) != 0;
+    }
+
+    private void clearHWall(int r, int c) {
+        hWalls[r * hStride + (c >>> 6)] &= ~(1L << c);
+    }
+
+    private void clearVWall(int r, int c) {
+        vWalls[r * vStride + (c >>> 6)] &= ~(1L << c);
+    }
+
     public String toString() {
-        String s = "";
+        StringBuilder s = new StringBuilder((numRows * 2 + 1) * (numCols * 2 + 2));
         char blank = ' ';
         char cross = '+'; //'·';
         for (int r = 0; r < numRows + 1; r++) {
             for (int c = 0; c < numCols; c++) {
-                s += cross;
-                if (hWalls[r][c] > 0) s += '-';
-                else s += blank;
+                s.append(cross);
+                s.append(hWall(r, c) ? '-' : blank);
             }
-            s += cross + "\n";
+            s.append(cross).append('\n');
             if (r == numRows) break;
             for (int c = 0; c < numCols + 1; c++) {
-                if (vWalls[r][c] > 0) s += '|';
-                else s += blank;
-                s += blank;
+                s.append(vWall(r, c) ? '|' : blank);
+                s.append(blank);
             }
-            s += "\n";
+            s.append('\n');
         }
 
-        return s;
+        return s.toString();
     }
 
-    public int setRandomExit() {
+    /**
+     * Opens one wall of the border, while the maze is generated
+     *
+     * @return  exit, numbered as by getExit()
+     */
+    private int openRandomExit() {
         int limit = (numCols + numRows) * 2;
-        int n = new Random().nextInt(limit);
+        int n = random.nextInt(limit);
 
         if (n < numCols) {
-            hWalls[0][n] = 0;
+            clearHWall(0, n);
         } else {
             if (n < 2 * numCols) {
-                hWalls[numRows][n - numCols] = 0;
+                clearHWall(numRows, n - numCols);
             } else {
                 if (n < 2 * numCols + numRows) {
-                    vWalls[n - 2 * numCols][0] = 0;
+                    clearVWall(n - 2 * numCols, 0);
                 } else {
-                    vWalls[n - (2 * numCols + numRows)][numCols] = 0;
+                    clearVWall(n - (2 * numCols + numRows), numCols);
                 }
             }
         }
         return n;
     }
     
+    /**
+     * Removes a wall of the border. Only while the maze is built, before it is shared.
+     *
+     * @param dest  side: 0-top, 1-right, 2-bottom, 3-left
+     * @param i     column of the top or bottom wall, row of the left or right wall
+     */
+    void openBorder(int dest, int i) {
+        switch (dest) {
+            case 0:
+                clearHWall(0, i);
+                break;
+            case 1:
+                clearVWall(i, numCols);
+                break;
+            case 2:
+                clearHWall(numRows, i);
+                break;
+            default:
+                clearVWall(i, 0);
+        }
+    }
+
+    @Override
     public boolean isWall(int r, int c, int dest) {  //0-up, 1-right, 2-down, 3-left
         if (r < 0 || c < 0 || r >= numRows || c >= numCols) {
             throw new IllegalArgumentException("arguments out of maze bounds " + numRows + ", " + numCols);
         }
-        if (dest == 0 && hWalls[r][c] > 0
-            || dest == 2 && hWalls[r + 1][c] > 0
-            || dest == 1 && vWalls[r][c + 1] > 0
-            || dest == 3 && vWalls[r][c] > 0)  {
+        if (dest == 0 && hWall(r, c)
+            || dest == 2 && hWall(r + 1, c)
+            || dest == 1 && vWall(r, c + 1)
+            || dest == 3 && vWall(r, c))  {
             return true;
         }
         return false;
     }
-    
-    private class Cell {
-        int r;
-        int c;
-        Cell(int r, int c) {
-            this.r = r;
-            this.c = c;
+
+    /**
+     * All walls of a cell at once
+     *
+     * @param r     row
+     * @param c     column
+     * @return      UP | RIGHT | DOWN | LEFT bits of the walls that are there, bit dest for isWall(r, c, dest)
+     */
+    @Override
+    public int getWalls(int r, int c) {
+        if (r < 0 || c < 0 || r >= numRows || c >= numCols) {
+            throw new IllegalArgumentException("arguments out of maze bounds " + numRows + ", " + numCols);
+        }
+        int above = (int) (hWalls[r * hStride + (c >>> 6)] >>> c) & 1;
+        int below = (int) (hWalls[(r + 1) * hStride + (c >>> 6)] >>> c) & 1;
+        int vRow = r * vStride;
+        int left = (int) (vWalls[vRow + (c >>> 6)] >>> c) & 1;
+        int right = (int) (vWalls[vRow + ((c + 1) >>> 6)] >>> (c + 1)) & 1;
+        return above | right << 1 | below << 2 | left << 3;
+    }
+
+    /**
+     * 64 horizontal walls of a row line
+     *
+     * @param r     0 - top of the maze ... numRows - bottom of the maze
+     * @param word  columns word * 64 ... word * 64 + 63
+     * @return      bit i is the wall above cell (r, word * 64 + i), bits past the last column are 0
+     */
+    @Override
+    public long getHWallsWord(int r, int word) {
+        if (r < 0 || r > numRows || word < 0 || word >= hStride) {
+            throw new IllegalArgumentException("arguments out of maze bounds " + numRows + ", " + numCols);
         }
+        return hWalls[r * hStride + word];
     }
 
+    /**
+     * 64 vertical walls of a row
+     *
+     * @param r     row
+     * @param word  wall lines word * 64 ... word * 64 + 63, line c is left of column c
+     * @return      bit i is the wall left of cell (r, word * 64 + i), bits past the right border are 0
+     */
+    @Override
+    public long getVWallsWord(int r, int word) {
+        if (r < 0 || r >= numRows || word < 0 || word >= vStride) {
+            throw new IllegalArgumentException("arguments out of maze bounds " + numRows + ", " + numCols);
+        }
+        return vWalls[r * vStride + word];
+    }
+    
     /*
     public static void main(String[] a) {
         Maze maze = new Maze(3,5);
-        maze.generateMaze(2, 3);
-        maze.setRandomExit();
         System.out.println(maze);
     }
     */
 
+    @Override
     public int getNumRows() {
         return numRows;
     }
 
+    @Override
     public int getNumCols() {
         return numCols;
     }
 
+    /**
+     * @return  seed the maze was generated from: the same seed, size and generation mode give the same maze
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return  exit: 0..numCols-1 top, ..2*numCols-1 bottom, ..2*numCols+numRows-1 left, then right; -1 if there is none
+     */
+    @Override
+    public int getExit() {
+        return exit;
+    }
+
+    /**
+     * Distances to the exit, searched on the first call
+     *
+     * @return  distances, null if the maze is too large to be searched
+     */
+    @Override
+    public DistanceField getDistances() {
+        if (!searched) {
+            synchronized (this) {
+                if (!searched) {
+                    distances = DistanceField.search(this);
+                    searched = true;
+                }
+            }
+        }
+        return distances;
+    }
+
 }
@@ -0,0 +1,138 @@
+package model;
+
+/**
+ * A player in a maze: position, number of moves and status, about 32 bytes.
+ *
+ * The maze itself is only read, so one maze may be shared by any number of cursors
+ * on any threads without locking. A cursor is moved by one thread at a time (its session);
+ * the status may be read from other threads.
+ */
+public class MazeCursor {
+    //status
+    public static final int NOT_STARTED = 0;
+    public static final int STARTED = 1;
+    public static final int EXIT_FOUND = 2;
+
+    //move results
+    public static final int YES = 0;
+    public static final int NO = 1;
+    public static final int EXIT = 2;
+    public static final int GAME_STOPPED = 3;
+
+    private final MazeWalls maze;
+    int row;
+    int col;
+    private int moves;
+    private int optimal = -1;   //fewest moves from the start, known when the game starts
+    private volatile byte status = NOT_STARTED;
+
+    /**
+     * @param maze  maze, not changed any more
+     * @param row   start row
+     * @param col   start column
+     */
+    public MazeCursor(MazeWalls maze, int row, int col) {
+        this.maze = maze;
+        this.row = row;
+        this.col = col;
+    }
+
+    /**
+     * Moves if there is no wall
+     *
+     * @param dest  0-up, 1-right, 2-down, 3-left
+     * @return      YES, NO, EXIT or GAME_STOPPED
+     */
+    public int move(int dest) {
+        if (isOut()) {
+            return GAME_STOPPED;
+        }
+        if (isWall(dest)) {
+            return NO;
+        }
+        if (dest == 0) row--;
+        if (dest == 1) col++;
+        if (dest == 2) row++;
+        if (dest == 3) col--;
+        moves++;
+
+        if (isOut()) {
+            status = EXIT_FOUND;
+            return EXIT;
+        }
+        return YES;
+    }
+
+    /**
+     * Game starts with the first request of the player
+     *
+     * @return  true if it was not started before
+     */
+    public boolean start() {
+        if (status == NOT_STARTED) {
+            optimal = distanceToExit();
+            status = STARTED;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Best next move
+     *
+     * @return  0-up, 1-right, 2-down, 3-left, -1 if there is no way out, the player is out already
+     *          or the maze has no distances
+     */
+    public int getHint() {
+        DistanceField distances = maze.getDistances();
+        return isOut() || distances == null ? -1 : distances.getHint(row, col);
+    }
+
+    /**
+     * @return  fewest moves to the exit from here, -1 if there is no way out or the maze has no distances
+     */
+    public int distanceToExit() {
+        if (isOut()) {
+            return 0;
+        }
+        DistanceField distances = maze.getDistances();
+        return distances == null ? -1 : distances.getDistance(row, col);
+    }
+
+    protected boolean isWall(int dest) {
+        return maze.isWall(row, col, dest);
+    }
+
+    protected boolean isOut() {
+        return row < 0 || row >= maze.getNumRows() || col < 0 || col >= maze.getNumCols();
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    /**
+     * @return  moves made, not counting the ones into walls
+     */
+    public int getMoves() {
+        return moves;
+    }
+
+    /**
+     * @return  fewest moves from the start to the exit, -1 if unknown or there is no way out
+     */
+    public int getOptimalMoves() {
+        return optimal;
+    }
+
+    /**
+     * @return  NOT_STARTED, STARTED or EXIT_FOUND
+     */
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,188 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Binary maze file, read back through a memory mapping (MappedMaze).
+ *
+ * Little-endian. Header of HEADER_SIZE bytes: int MAGIC, int VERSION, int rows, int columns,
+ * long seed, int exit (-1 - none), int 0. Then the horizontal wall rows ((rows + 1) * hStride longs)
+ * and the vertical wall rows (rows * vStride longs), in the layout of Maze:
+ * hStride = (columns + 63) / 64, vStride = (columns + 64) / 64, bit c of a row is the wall of column c.
+ *
+ * Usage: MazeFile file rows columns [seed] - generates a maze row by row straight into the file,
+ * the maze does not have to fit in memory.
+ */
+public class MazeFile {
+    public static final int MAGIC = 0x4D415A45;    //"MAZE"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: MazeFile file rows columns [seed]");
+            System.exit(2);
+        }
+        int numRows = Integer.parseInt(args[1]);
+        int numCols = Integer.parseInt(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : new Random().nextLong();
+        long start = System.nanoTime();
+        try (RowWriter writer = new RowWriter(Paths.get(args[0]), numRows, numCols, seed)) {
+            new EllerMazeGenerator(numCols, new Random(seed)).generate(numRows, writer);
+        }
+        System.out.printf("%d x %d maze, seed %d, written in %.1f s%n", numRows, numCols, seed,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Writes a maze to a file
+     *
+     * @param maze  maze on the heap or another mapped one
+     * @param seed  seed kept in the header
+     * @param file  file, replaced if it exists
+     * @throws IOException  on write errors
+     */
+    public static void write(MazeWalls maze, long seed, Path file) throws IOException {
+        int numRows = maze.getNumRows();
+        int numCols = maze.getNumCols();
+        int hStride = hStride(numCols);
+        int vStride = vStride(numCols);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header(numRows, numCols, seed, maze.getExit()), 0);
+            long position = HEADER_SIZE;
+            ByteBuffer row = buffer(Math.max(hStride, vStride));
+            for (int r = 0; r <= numRows; r++) {
+                row.clear();
+                for (int w = 0; w < hStride; w++) {
+                    row.putLong(maze.getHWallsWord(r, w));
+                }
+                row.flip();
+                position += writeFully(channel, row, position);
+            }
+            for (int r = 0; r < numRows; r++) {
+                row.clear();
+                for (int w = 0; w < vStride; w++) {
+                    row.putLong(maze.getVWallsWord(r, w));
+                }
+                row.flip();
+                position += writeFully(channel, row, position);
+            }
+        }
+    }
+
+    public static void write(Maze maze, Path file) throws IOException {
+        write(maze, maze.getSeed(), file);
+    }
+
+    /**
+     * Maps a maze file, the walls are read from the mapped pages
+     *
+     * @param file  file written by write() or RowWriter
+     * @return      maze, may be shared by any number of threads
+     * @throws IOException  if the file cannot be read or is not a maze file
+     */
+    public static MappedMaze open(Path file) throws IOException {
+        return new MappedMaze(file);
+    }
+
+    /**
+     * Writes the rows of an EllerMazeGenerator to a file. The exit is opened in the bottom border.
+     */
+    public static class RowWriter implements EllerMazeGenerator.RowSink, Closeable {
+        private FileChannel channel;
+        private int numRows;
+        private int numCols;
+        private long vOffset;   //first vertical wall row
+        private int exitCol;
+        private ByteBuffer hRow;
+        private ByteBuffer vRow;
+
+        /**
+         * @param file      file, replaced if it exists
+         * @param numRows   rows that will be generated
+         * @param numCols   columns
+         * @param seed      seed kept in the header, also places the exit
+         * @throws IOException  if the file cannot be created
+         */
+        public RowWriter(Path file, int numRows, int numCols, long seed) throws IOException {
+            if (numRows < 1 || numCols < 1) {
+                throw new IllegalArgumentException("Maze dimensions must be positive");
+            }
+            this.numRows = numRows;
+            this.numCols = numCols;
+            exitCol = new Random(seed).nextInt(numCols);
+            vOffset = HEADER_SIZE + (numRows + 1L) * hStride(numCols) * 8;
+            hRow = buffer(hStride(numCols));
+            vRow = buffer(vStride(numCols));
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            writeFully(channel, header(numRows, numCols, seed, numCols + exitCol), 0);
+        }
+
+        @Override
+        public void row(long r, long[] hWalls, long[] vWalls) throws IOException {
+            if (r >= numRows) {
+                throw new IOException("Row " + r + " past the " + numRows + " rows of the file");
+            }
+            writeWords(hWalls, hRow, HEADER_SIZE + r * hRow.capacity());
+            writeWords(vWalls, vRow, vOffset + r * vRow.capacity());
+        }
+
+        @Override
+        public void end(long[] hWalls) throws IOException {
+            long[] bottom = hWalls.clone();
+            bottom[exitCol >>> 6] &= ~(1L << exitCol);
+            writeWords(bottom, hRow, HEADER_SIZE + (long) numRows * hRow.capacity());
+        }
+
+        private void writeWords(long[] words, ByteBuffer row, long position) throws IOException {
+            row.clear();
+            for (long word : words) {
+                row.putLong(word);
+            }
+            row.flip();
+            writeFully(channel, row, position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    static int hStride(int numCols) {
+        return (numCols + 63) >>> 6;
+    }
+
+    static int vStride(int numCols) {
+        return (numCols + 1 + 63) >>> 6;
+    }
+
+    private static ByteBuffer header(int numRows, int numCols, long seed, int exit) {
+        ByteBuffer header = buffer(HEADER_SIZE / 8);
+        header.putInt(MAGIC).putInt(VERSION).putInt(numRows).putInt(numCols).putLong(seed).putInt(exit).putInt(0);
+        header.flip();
+        return header;
+    }
+
+    private static ByteBuffer buffer(int words) {
+        return ByteBuffer.allocate(words * 8).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int n = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,109 @@
+package model;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mazes generated in advance, so a new game does not wait for its maze.
+ *
+ * Mazes are kept by size class (rows x columns), up to the watermark per class.
+ * A class is created by the first request for its size; from then on a background
+ * thread refills it whenever mazes are taken. Mazes come with their exit and distances already set,
+ * each one is given out once.
+ */
+public class MazePool {
+    public static final int DEFAULT_WATERMARK = 16;
+    private static final int MAX_CLASSES = 64;  //sizes kept, requests for other sizes are not pooled
+
+    private int watermark;
+    private ConcurrentHashMap<Long, ArrayBlockingQueue<Maze>> classes = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+    private Thread refillThread;
+
+    /**
+     * @param watermark     mazes kept ready per size class
+     */
+    public MazePool(int watermark) {
+        if (watermark < 1) {
+            throw new IllegalArgumentException("Watermark must be positive: " + watermark);
+        }
+        this.watermark = watermark;
+        refillThread = new Thread(this::refillLoop, "MazePool-refill");
+        refillThread.setDaemon(true);
+        refillThread.setPriority(Thread.NORM_PRIORITY - 1);   //players' moves first
+        refillThread.start();
+    }
+
+    /**
+     * Takes a ready maze. Does not block.
+     *
+     * @param numRows   rows
+     * @param numCols   columns
+     * @return          maze with an exit, null if none of this size is ready
+     */
+    public Maze poll(int numRows, int numCols) {
+        ArrayBlockingQueue<Maze> queue = classes.get(key(numRows, numCols));
+        if (queue == null) {
+            if (running && classes.size() < MAX_CLASSES) {
+                classes.putIfAbsent(key(numRows, numCols), new ArrayBlockingQueue<>(watermark));
+                LockSupport.unpark(refillThread);
+            }
+            return null;
+        }
+        Maze maze = queue.poll();
+        LockSupport.unpark(refillThread);
+        return maze;
+    }
+
+    /**
+     * @return  mazes ready in all size classes
+     */
+    public int getNumReady() {
+        int n = 0;
+        for (ArrayBlockingQueue<Maze> queue : classes.values()) {
+            n += queue.size();
+        }
+        return n;
+    }
+
+    public int getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * Stops the refill thread and drops the ready mazes
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(refillThread);
+        classes.clear();
+    }
+
+    /**
+     * Fills every size class up to the watermark, then sleeps until a maze is taken
+     */
+    private void refillLoop() {
+        while (running) {
+            boolean filled = false;
+            for (Map.Entry<Long, ArrayBlockingQueue<Maze>> entry : classes.entrySet()) {
+                ArrayBlockingQueue<Maze> queue = entry.getValue();
+                if (running && queue.remainingCapacity() > 0) {
+                    Maze maze = new Maze((int) (entry.getKey() >>> 32), (int) (long) entry.getKey());
+                    maze.getDistances();    //searched here, not by the first hint
+                    queue.offer(maze);
+                    filled = true;  //one maze per class per pass, so a new class does not wait for the others
+                }
+            }
+            if (!filled) {
+                LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+    }
+
+    private static Long key(int numRows, int numCols) {
+        return (long) numRows << 32 | numCols;
+    }
+}
@@ -0,0 +1,52 @@
+package model;
+
+/**
+ * Walls of a rectangular maze, read only. Kept on the heap (Maze) or in a mapped file (MappedMaze).
+ *
+ * Row and column numbers are as in Maze, so are the bits of the wall words.
+ */
+public interface MazeWalls {
+    int getNumRows();
+
+    int getNumCols();
+
+    /**
+     * @param r     row
+     * @param c     column
+     * @param dest  0-up, 1-right, 2-down, 3-left
+     * @return      true if there is a wall
+     */
+    boolean isWall(int r, int c, int dest);
+
+    /**
+     * @param r     row
+     * @param c     column
+     * @return      Maze.UP | RIGHT | DOWN | LEFT bits of the walls that are there
+     */
+    int getWalls(int r, int c);
+
+    /**
+     * @param r     0 - top of the maze ... numRows - bottom of the maze
+     * @param word  columns word * 64 ... word * 64 + 63
+     * @return      bit i is the wall above cell (r, word * 64 + i)
+     */
+    long getHWallsWord(int r, int word);
+
+    /**
+     * @param r     row
+     * @param word  wall lines word * 64 ... word * 64 + 63, line c is left of column c
+     * @return      bit i is the wall left of cell (r, word * 64 + i)
+     */
+    long getVWallsWord(int r, int word);
+
+    /**
+     * @return  exit as numbered by Maze.getExit, -1 if there is none
+     */
+    int getExit();
+
+    /**
+     * @return  distances to the exit, computed once per maze and shared;
+     *          null if the maze is too large to be searched, players then get no hints or scores
+     */
+    DistanceField getDistances();
+}
@@ -1,6 +1,7 @@
 package model;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Vadim Shutenko on 20-Aug-18.
@@ -8,20 +9,25 @@ import java.io.Serializable;
  */
 
 public class Message implements Serializable {
+    private static final long serialVersionUID = -8724384036625527012L;  //as before the protocol field was added
 
-    private static int counter;
+    private static final AtomicInteger counter = new AtomicInteger();
 
     private int id;
     private Type type;
     private String data;
+    private String protocol;    //START only: wire protocol offered by client or accepted by server
 
     public Message(Type type, String data) {
         this.type = type;
         this.data = data;
-        id = ++counter;
+        id = counter.incrementAndGet();
     }
 
-    private Message(Type type, String data, int id) {
+    /**
+     * Constructor with id given by the sender, e.g. a per-connection counter
+     */
+    public Message(Type type, String data, int id) {
         this.type = type;
         this.data = data;
         this.id = id;
@@ -31,6 +37,23 @@ public class Message implements Serializable {
         return new Message(Type.ANSWER, text, getId());
     }
 
+    /**
+     * Offers or accepts a wire protocol in the START handshake
+     * @param protocol  protocol name, e.g. MessageCodec.PROTOCOL
+     * @return          this message
+     */
+    public Message withProtocol(String protocol) {
+        this.protocol = protocol;
+        return this;
+    }
+
+    /**
+     * @return  protocol offered or accepted, null for plain object streams
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
     public Type getType() {
         return type;
     }
@@ -0,0 +1,259 @@
+package model;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of Message, used after both sides agree on it
+ * in the START handshake (see Message.getProtocol()).
+ *
+ * Frame:   varint length, type byte, varint id, payload
+ * Type byte: message type ordinal in the low 4 bits, payload kind in the high 4 bits.
+ * Payload: one opcode byte for "move" requests and answers, one opcode byte per move
+ *          for "moves" batches, UTF-8 text otherwise.
+ * Opcode:  direction (0-up, 1-right, 2-down, 3-left) | result (0-yes, 1-no, 2-exit, 3-game_stopped) << 2
+ */
+public class MessageCodec {
+    public static final String PROTOCOL = "binary-1";
+    public static final int MAX_FRAME = 64 * 1024;
+
+    private static final int KIND_TEXT = 0;
+    private static final int KIND_MOVE = 1;
+    private static final int KIND_MOVE_RESULT = 2;
+    private static final int KIND_MOVES = 3;
+    private static final int KIND_MOVES_RESULT = 4;
+
+    private static final Message.Type[] types = Message.Type.values();
+    private static final String[] moves = {"move up", "move right", "move down", "move left"};
+    private static final String[] commands = {"move up", "move ri", "move do", "move le"};  //as answered by GameDriver
+    private static final String[] results = {"yes", "no", "exit", "game_stopped"};
+    private static final String DIRECTIONS = "urdl";
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Encodes message as a complete frame
+     *
+     * @param message   message
+     * @return          frame bytes
+     */
+    public static byte[] encode(Message message) {
+        String data = message.getData();
+        int kind = KIND_MOVE;
+        byte[] payload = moveOpcode(data);
+        if (payload == null) {
+            kind = KIND_MOVE_RESULT;
+            payload = moveResultOpcode(data);
+        }
+        if (payload == null) {
+            kind = KIND_MOVES;
+            payload = movesOpcodes(data);
+        }
+        if (payload == null) {
+            kind = KIND_MOVES_RESULT;
+            payload = movesResultOpcodes(data);
+        }
+        if (payload == null) {
+            kind = KIND_TEXT;
+            payload = data.getBytes(StandardCharsets.UTF_8);
+        }
+
+        int bodyLength = 1 + varintSize(message.getId()) + payload.length;
+        byte[] frame = new byte[varintSize(bodyLength) + bodyLength];
+        int pos = putVarint(frame, 0, bodyLength);
+        frame[pos++] = (byte) (message.getType().ordinal() | kind << 4);
+        pos = putVarint(frame, pos, message.getId());
+        System.arraycopy(payload, 0, frame, pos, payload.length);
+        return frame;
+    }
+
+    /**
+     * Writes message to a stream as one frame
+     */
+    public static void write(Message message, OutputStream out) throws IOException {
+        out.write(encode(message));
+        out.flush();
+    }
+
+    /**
+     * Reads one frame from a blocking stream
+     */
+    public static Message read(DataInputStream in) throws IOException {
+        int length = readVarint(in);
+        if (length < 2 || length > MAX_FRAME) {
+            throw new IOException("Bad frame length " + length);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(body, 0, length);
+    }
+
+    /**
+     * Size of the first frame in a buffer
+     *
+     * @return  frame size including length prefix, or -1 if the buffer does not hold a whole frame yet
+     * @throws IOException  on a bad length
+     */
+    public static int frameSize(byte[] buf, int off, int len) throws IOException {
+        int length = 0;
+        for (int i = 0; i < 5; i++) {
+            if (i >= len) return -1;
+            int b = buf[off + i];
+            length |= (b & 0x7f) << (7 * i);
+            if ((b & 0x80) == 0) {
+                if (length < 2 || length > MAX_FRAME) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                int size = i + 1 + length;
+                return size <= len ? size : -1;
+            }
+        }
+        throw new IOException("Bad frame length");
+    }
+
+    /**
+     * Decodes a complete frame, as measured by frameSize
+     */
+    public static Message decodeFrame(byte[] buf, int off, int size) throws IOException {
+        int pos = off;
+        while ((buf[pos++] & 0x80) != 0) ;
+        return decode(buf, pos, size - (pos - off));
+    }
+
+    private static Message decode(byte[] body, int off, int length) throws IOException {
+        int end = off + length;
+        int header = body[off++] & 0xff;
+        int typeOrdinal = header & 0x0f;
+        int kind = header >> 4;
+        if (typeOrdinal >= types.length) {
+            throw new IOException("Bad message type " + typeOrdinal);
+        }
+
+        int id = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (off >= end || shift > 28) throw new IOException("Bad message id");
+            int b = body[off++];
+            id |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+
+        String data;
+        if (kind == KIND_TEXT) {
+            data = new String(body, off, end - off, StandardCharsets.UTF_8);
+        } else if (kind == KIND_MOVE || kind == KIND_MOVE_RESULT) {
+            if (end - off != 1) throw new IOException("Bad opcode length");
+            int opcode = body[off] & 0xff;
+            if (kind == KIND_MOVE) {
+                data = moves[opcode & 3];
+            } else {
+                data = commands[opcode & 3] + "=" + results[(opcode >> 2) & 3];
+            }
+        } else if (kind == KIND_MOVES || kind == KIND_MOVES_RESULT) {
+            StringBuilder text = new StringBuilder("moves");
+            if (kind == KIND_MOVES) text.append(' ');
+            for (int i = off; i < end; i++) {
+                int opcode = body[i] & 0xff;
+                if (kind == KIND_MOVES) {
+                    text.append(DIRECTIONS.charAt(opcode & 3));
+                } else {
+                    text.append(' ').append(DIRECTIONS.charAt(opcode & 3)).append('=').append(results[(opcode >> 2) & 3]);
+                }
+            }
+            data = text.toString();
+        } else {
+            throw new IOException("Bad payload kind " + kind);
+        }
+        return new Message(types[typeOrdinal], data, id);
+    }
+
+    private static byte[] moveOpcode(String data) {
+        for (int i = 0; i < moves.length; i++) {
+            if (moves[i].equals(data)) return new byte[] {(byte) i};
+        }
+        return null;
+    }
+
+    private static byte[] moveResultOpcode(String data) {
+        if (data.length() < 9 || data.charAt(7) != '=') return null;
+        for (int i = 0; i < commands.length; i++) {
+            if (data.startsWith(commands[i])) {
+                int result = resultIndex(data, 8, data.length());
+                return result < 0 ? null : new byte[] {(byte) (i | result << 2)};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * "moves urdl" - one direction per byte
+     */
+    private static byte[] movesOpcodes(String data) {
+        if (!data.startsWith("moves ") || data.length() == 6) return null;
+        byte[] opcodes = new byte[data.length() - 6];
+        for (int i = 0; i < opcodes.length; i++) {
+            int dest = DIRECTIONS.indexOf(data.charAt(6 + i));
+            if (dest < 0) return null;
+            opcodes[i] = (byte) dest;
+        }
+        return opcodes;
+    }
+
+    /**
+     * "moves u=yes r=no" - direction and result per byte
+     */
+    private static byte[] movesResultOpcodes(String data) {
+        if (!data.startsWith("moves")) return null;
+        String[] items = data.length() == 5 ? new String[0] : data.substring(5).split(" ", -1);
+        if (items.length == 0 || items[0].length() > 0) return null;   //must start with a space
+        byte[] opcodes = new byte[items.length - 1];
+        for (int i = 1; i < items.length; i++) {
+            String item = items[i];
+            int dest = item.length() > 2 && item.charAt(1) == '=' ? DIRECTIONS.indexOf(item.charAt(0)) : -1;
+            int result = dest < 0 ? -1 : resultIndex(item, 2, item.length());
+            if (result < 0) return null;
+            opcodes[i - 1] = (byte) (dest | result << 2);
+        }
+        return opcodes;
+    }
+
+    private static int resultIndex(String data, int from, int to) {
+        for (int j = 0; j < results.length; j++) {
+            if (to - from == results[j].length() && data.startsWith(results[j], from)) return j;
+        }
+        return -1;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int putVarint(byte[] buf, int pos, int value) {
+        while ((value & ~0x7f) != 0) {
+            buf[pos++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift <= 28; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new EOFException();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Bad varint");
+    }
+}
@@ -1,24 +1,25 @@
 package view;
 
 import controller.ClientController;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.value.ObservableValue;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
-import javafx.scene.Group;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Circle;
-import javafx.scene.shape.Line;
-import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 
-import model.Message;
 import controller.ServerController;
+import model.ClientGameDriver;
+
+import java.io.IOException;
 
 /**
  * Created by Vadim Shutenko on 20-Aug-18.
@@ -27,7 +28,7 @@ import controller.ServerController;
  */
 
 public class ClientFrame extends Application {
-    private ClientController controller = new ClientController(this, nScreenCells, nScreenCells);
+    private ClientController controller;
 
     private Button startButton = new Button("Connect");
     private Button stopButton = new Button("Disconnect");
@@ -38,24 +39,32 @@ public class ClientFrame extends Application {
     private Button rightButton = new Button("Right");
 
     private TextArea log = new TextArea();
+    private volatile LogPipeline logPipeline;
     private Text portLabel = new Text("Port");
     private Text nameLabel = new Text("Name");
-    private Label comment = new Label("Use keyboard to move");
+    private Label comment = new Label("Use keyboard to move, H for a hint");
 
     private TextField port = new TextField("" + ServerController.defaultPort);
     private TextField name = new TextField("Player1");
 
     //------------ Maze ----------
-    private static final int nScreenCells = 5;
-    private static final int wCell = 33;
-    private static final int wRect = nScreenCells * wCell;
-    private Rectangle rect = new Rectangle(0, 0, wRect, wRect);
-    private Rectangle[][] cells = new Rectangle[nScreenCells][nScreenCells];
-
-    private Line[][] vLines = new Line[nScreenCells][nScreenCells + 1];
-    private Line[][] hLines = new Line[nScreenCells + 1][nScreenCells];
-    private Circle ball = new Circle(wRect / nScreenCells / 3);
-    private Color[] colors = {Color.LIGHTGRAY, Color.WHITE, Color.BLACK};
+    private static final int MIN_SCREEN_CELLS = 5;
+    private static final int MAX_SCREEN_CELLS = 200;
+    private static final int MAZE_PIXELS = 600;     //about, the cells get smaller down to MIN_CELL_PIXELS
+    private static final int MIN_CELL_PIXELS = 3;
+    private static final int MAX_CELL_PIXELS = 33;
+    private static final int TILES_KEPT = 512;
+    private static final int MINI_MAP_PIXELS = 200;
+
+    private int nScreenCells = MIN_SCREEN_CELLS;    //rows and columns shown, --view=n
+    private int wCell;
+    private int wRect;
+    private Canvas canvas;
+    private MazeTiles tiles;
+    private Canvas miniMapCanvas;   //everything explored
+    private MiniMap miniMap;
+    private int ballRow;    //map cell where the ball was drawn
+    private int ballCol;
 
     private static Color ballBefore = Color.GRAY;
     private static Color ballIn = Color.GREEN;
@@ -67,9 +76,27 @@ public class ClientFrame extends Application {
 
     private static Color cellUnknown = Color.WHITESMOKE;
     private static Color cellVisited = Color.WHITE;
+    private static Color mapUnknown = Color.DARKGRAY;
+
+
+    private final DirtyCells dirty = new DirtyCells();
+    private final DirtyCells.CellConsumer cellPainter = (r, c) -> {
+        tiles.cellChanged(r, c);
+        miniMap.cellChanged(r, c);
+    };
+    private final AnimationTimer painter = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            paint();
+        }
+    };
     //---------------
 
     public void start(Stage stage) {
+        openLog();
+        setViewSize();
+        controller = new ClientController(this, nScreenCells, nScreenCells);
+
         HBox inputs = new HBox();
         port.setPrefWidth(100);
         inputs.getChildren().addAll(portLabel, port, nameLabel, name);
@@ -87,7 +114,10 @@ public class ClientFrame extends Application {
 
         VBox vBox = new VBox();
         vBox.setAlignment(Pos.CENTER);
-        Group maze = lines();
+        HBox maze = new HBox();
+        maze.getChildren().addAll(mazeCanvas(), miniMapCanvas());
+        maze.setSpacing(10);
+        maze.setAlignment(Pos.CENTER);
 
         vBox.getChildren().addAll(inputs, buttons, maze, comment, log);
         vBox.setSpacing(10);
@@ -113,6 +143,8 @@ public class ClientFrame extends Application {
         stopButton.setFocusTraversable(false);
         name.setFocusTraversable(false);
         port.setFocusTraversable(false);
+
+        painter.start();
     }
 
     /**
@@ -136,10 +168,10 @@ public class ClientFrame extends Application {
         stopButton.setDisable(true);
         stopButton.setOnAction(e -> setClientStopped());
 
-        leftButton.setOnAction(e -> controller.sendMessage(new Message(Message.Type.REQUEST, "move left")));
-        rightButton.setOnAction(e -> controller.sendMessage(new Message(Message.Type.REQUEST, "move right")));
-        upButton.setOnAction(e -> controller.sendMessage(new Message(Message.Type.REQUEST, "move up")));
-        downButton.setOnAction(e -> controller.sendMessage(new Message(Message.Type.REQUEST, "move down")));
+        leftButton.setOnAction(e -> controller.requestMove('l'));
+        rightButton.setOnAction(e -> controller.requestMove('r'));
+        upButton.setOnAction(e -> controller.requestMove('u'));
+        downButton.setOnAction(e -> controller.requestMove('d'));
 
         leftButton.setDisable(true);
         rightButton.setDisable(true);
@@ -150,38 +182,72 @@ public class ClientFrame extends Application {
             if (startButton.isDisable()) {
                 switch (e.getCode()) {
                     case UP:
-                        controller.sendMessage(new Message(Message.Type.REQUEST, "move up"));
+                        controller.requestMove('u');
                         break;
                     case DOWN:
-                        controller.sendMessage(new Message(Message.Type.REQUEST, "move down"));
+                        controller.requestMove('d');
                         break;
                     case LEFT:
-                        controller.sendMessage(new Message(Message.Type.REQUEST, "move left"));
+                        controller.requestMove('l');
                         break;
                     case RIGHT:
-                        controller.sendMessage(new Message(Message.Type.REQUEST, "move right"));
+                        controller.requestMove('r');
+                        break;
+                    case H:
+                        controller.requestHint();
                         break;
                 }
-                rect.requestFocus();
+                canvas.requestFocus();
             }
         });
     }
 
     @Override
     public void stop() {
+        painter.stop();
         setClientStopped();
+        logPipeline.close();
+    }
+
+    /**
+     * Starts the log, also written to a file if the application was launched with --log=file
+     */
+    private void openLog() {
+        String logFile = getParameters().getNamed().get("log");
+        try {
+            logPipeline = new LogPipeline(new TextAreaLogSink(log), logFile);
+        } catch (IOException e) {
+            logPipeline = new LogPipeline(new TextAreaLogSink(log));
+            appendLog("Can not open log file " + logFile + ": " + e);
+        }
     }
 
     /**
-     * Appends text log window
+     * Rows and columns shown, from the --view=n parameter; the cells get smaller as there are more
+     */
+    private void setViewSize() {
+        String view = getParameters().getNamed().get("view");
+        if (view != null) {
+            try {
+                nScreenCells = Math.max(MIN_SCREEN_CELLS, Math.min(MAX_SCREEN_CELLS, Integer.parseInt(view)));
+            } catch (NumberFormatException e) {
+                appendLog("Wrong view size " + view + ", using " + nScreenCells);
+            }
+        }
+        wCell = Math.max(MIN_CELL_PIXELS, Math.min(MAX_CELL_PIXELS, MAZE_PIXELS / nScreenCells));
+        wRect = nScreenCells * wCell;
+    }
+
+    /**
+     * Appends text log window. Does not block, the text is shown with the next batch.
      *
      * @param text
      */
-    public synchronized void appendLog(String text) {
-        Platform.runLater(() -> {
-            log.appendText(text);
-            log.appendText("\n");
-        });
+    public void appendLog(String text) {
+        LogPipeline pipeline = logPipeline;
+        if (pipeline != null) {
+            pipeline.append(text);
+        }
     }
 
     /**
@@ -232,92 +298,91 @@ public class ClientFrame extends Application {
     }
 
     /**
-     * Creates Maze picture
-     * @return  JavaFX group
+     * Creates Maze picture, drawn by paint()
+     * @return  canvas, one pixel wider than the cells for the walls on the right
      */
-    private Group lines() {
-        Group group = new Group();
-
-        rect.setFill(colors[1]);
-        group.getChildren().add(rect);
-
-        for (int r = 0; r < vLines.length; r++) {
-            for (int c = 0; c < vLines[r].length; c++) {
-                vLines[r][c] = new Line(c * wRect / nScreenCells,
-                        r * wRect / nScreenCells,
-                        c * wRect / nScreenCells,
-                        r * wRect / nScreenCells + wRect / nScreenCells);
-                group.getChildren().add(vLines[r][c]);
-                vLines[r][c].setStroke(wallUnknown);
-            }
-        }
-
-        for (int r = 0; r < hLines.length; r++) {
-            for (int c = 0; c < hLines[r].length; c++) {
-                hLines[r][c] = new Line(c * wRect / nScreenCells,
-                        r * wRect / nScreenCells,
-                        c * wRect / nScreenCells + wRect / nScreenCells,
-                        r * wRect / nScreenCells);
-                group.getChildren().add(hLines[r][c]);
-                hLines[r][c].setStroke(wallUnknown);
-            }
-        }
+    private Canvas mazeCanvas() {
+        canvas = new Canvas(wRect + 1, wRect + 1);
+        tiles = new MazeTiles(wCell, TILES_KEPT, new Color[] {wallUnknown, wallNo, wallKnown}, cellUnknown, cellVisited);
+        invalidateMaze();
+        return canvas;
+    }
 
-        for (int r = 0; r < nScreenCells; r++) {
-            for (int c = 0; c < nScreenCells; c++) {
-                cells[r][c] = new Rectangle(c * wCell + 1, r * wCell + 1, wCell - 2, wCell - 2); //x, y = c, r!
-                cells[r][c].setFill(cellUnknown);
-                group.getChildren().add(cells[r][c]);
-            }
-        }
+    /**
+     * Creates the map of everything explored, drawn by paint()
+     * @return  canvas
+     */
+    private Canvas miniMapCanvas() {
+        miniMapCanvas = new Canvas(MINI_MAP_PIXELS, MINI_MAP_PIXELS);
+        miniMap = new MiniMap(MINI_MAP_PIXELS, mapUnknown, wallUnknown, cellVisited);
+        return miniMapCanvas;
+    }
 
-        setBallRC(nScreenCells /2, nScreenCells /2);
-        ball.setFill(ballBefore);
+    /**
+     * Marks the whole maze for redrawing, ex: when it scrolls. May be called from any thread.
+     */
+    public void invalidateMaze() {
+        dirty.markAll();
+    }
 
-        group.getChildren().add(ball);
-        return group;
+    /**
+     * Marks a cell and the walls above and left of it for redrawing. May be called from any thread.
+     *
+     * @param r     map row
+     * @param c     map column
+     */
+    public void invalidateCell(int r, int c) {
+        dirty.mark(r, c);
     }
 
     /**
-     * Redraws maze during the game process
+     * Draws what changed since the last pulse, on the FX thread once per frame.
+     * Moves answered between two frames are drawn together. Changed cells are drawn into their tiles,
+     * then the changed tiles are copied onto the canvas, all visible tiles after scrolling.
+     * The same cells are drawn into the tiles of the map of everything explored.
      */
-    public void redrawMaze() {
-        for (int r = 0; r < vLines.length; r++) {
-            for (int c = 0; c < vLines[r].length; c++) {
-                Boolean exists = controller.getVWall(r, c);
-                if (exists == null) vLines[r][c].setStroke(wallUnknown);
-                else if (exists) vLines[r][c].setStroke(wallKnown);
-                else vLines[r][c].setStroke(wallNo);
-            }
+    private void paint() {
+        if (!dirty.isPending()) {
+            return;
         }
-
-        for (int r = 0; r < hLines.length; r++) {
-            for (int c = 0; c < hLines[r].length; c++) {
-                Boolean exists = controller.getHWall(r, c);
-                if (exists == null) hLines[r][c].setStroke(wallUnknown);
-                else if (exists) hLines[r][c].setStroke(wallKnown);
-                else hLines[r][c].setStroke(wallNo);
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        synchronized (controller.getMapLock()) {
+            ClientGameDriver map = controller.getMap();
+            boolean all = tiles.setMap(map);
+            miniMap.setMap(map);
+            int result = dirty.drain(cellPainter);
+            if ((result & DirtyCells.LOST) != 0) {
+                tiles.clear();
+                miniMap.rebuild();
             }
-        }
-
-        for (int r = 0; r < nScreenCells; r++) {
-            for (int c = 0; c < nScreenCells; c++) {
-                cells[r][c].setFill(controller.isCellVisited(r, c) ? cellVisited : cellUnknown);
+            all |= result != 0;
+
+            tiles.invalidate(ballRow, ballCol);
+            if (map == null) {
+                tiles.draw(g, 0, 0, nScreenCells, nScreenCells, true);
+                drawBall(nScreenCells / 2, nScreenCells / 2, ballBefore);
+                miniMap.draw(miniMapCanvas.getGraphicsContext2D(), 0, 0, ballBefore);
+                return;
             }
+            tiles.draw(g, controller.getTopRow(), controller.getLeftCol(), nScreenCells, nScreenCells, all);
+            ballRow = map.getCurrentRow();
+            ballCol = map.getCurrentCol();
+            Color ballColor = controller.isBallOut() ? ballOut : ballIn;
+            drawBall(controller.getCurrentRow(), controller.getCurrentCol(), ballColor);
+            miniMap.draw(miniMapCanvas.getGraphicsContext2D(), ballRow, ballCol, ballColor);
         }
-
-        setBallRC(controller.getCurrentRow(), controller.getCurrentCol());
-        ball.setFill(controller.isBallOut() ? ballOut : ballIn);
     }
 
     /**
-     * Sets ball'c coordinates
-     * @param r     row
-     * @param c     column
+     * Draws the ball
+     * @param r     screen row
+     * @param c     screen column
      */
-    public void setBallRC(int r, int c) {
-        ball.setCenterX((c + 0.5) * wRect / nScreenCells);
-        ball.setCenterY((r + 0.5) * wRect / nScreenCells);
+    private void drawBall(int r, int c, Color color) {
+        double radius = Math.max(1, wCell / 3.0);
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        g.setFill(color);
+        g.fillOval((c + 0.5) * wCell - radius, (r + 0.5) * wCell - radius, 2 * radius, 2 * radius);
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,90 @@
+package view;
+
+import java.util.Arrays;
+
+/**
+ * Cells of the map that must be redrawn, marked from any thread and taken
+ * by the FX thread once per pulse. Cells are in map coordinates, so marks stay right when the view scrolls.
+ *
+ * markAll() asks for a full repaint, ex: when the view scrolls; marked cells are still reported,
+ * pictures cached by the view must see every change. If the view falls far behind, the marks are dropped
+ * and drain() reports LOST: everything has to be drawn again from the map.
+ */
+public class DirtyCells {
+    public static final int REPAINT = 1;    //drain results
+    public static final int LOST = 2;
+
+    private static final int MAX_MARKS = 1 << 16;  //between two drains
+
+    private long[] marks = new long[256];   //packed row, column
+    private long[] taken = new long[256];   //marks being reported, swapped with marks by drain()
+    private int numMarks;
+    private int flags;
+    private volatile boolean pending;   //anything marked since the last drain
+
+    /**
+     * Receives the marked cells
+     */
+    public interface CellConsumer {
+        void cell(int r, int c);
+    }
+
+    /**
+     * Marks one cell, the cell and the walls above and left of it
+     */
+    public synchronized void mark(int r, int c) {
+        if (numMarks == MAX_MARKS) {
+            flags |= LOST;
+        } else {
+            if (numMarks == marks.length) {
+                marks = Arrays.copyOf(marks, numMarks * 2);
+            }
+            marks[numMarks++] = (long) r << 32 | (c & 0xffffffffL);
+        }
+        pending = true;
+    }
+
+    /**
+     * Asks for a full repaint
+     */
+    public synchronized void markAll() {
+        flags |= REPAINT;
+        pending = true;
+    }
+
+    /**
+     * @return  true if something was marked since the last drain
+     */
+    public boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Takes the marked cells. Cells marked meanwhile are taken by the next drain.
+     * Called by one thread.
+     *
+     * @param consumer  called for each marked cell, in the order of marking, a cell may come more than once
+     * @return          0, or REPAINT and LOST bits; the consumer is not called if the marks were lost
+     */
+    public int drain(CellConsumer consumer) {
+        long[] cells;
+        int size;
+        int result;
+        synchronized (this) {
+            cells = marks;
+            size = numMarks;
+            result = flags;
+            marks = taken;
+            taken = cells;
+            numMarks = 0;
+            flags = 0;
+            pending = false;
+        }
+        if ((result & LOST) == 0) {
+            for (int i = 0; i < size; i++) {
+                consumer.cell((int) (cells[i] >> 32), (int) cells[i]);
+            }
+        }
+        return result;
+    }
+}
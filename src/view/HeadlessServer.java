@@ -0,0 +1,232 @@
+package view;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import controller.ServerController;
+import controller.ServerListener;
+import model.ChunkedMaze;
+import model.DistanceField;
+import model.MappedMaze;
+import model.Maze;
+import model.MazeFile;
+import model.MazePool;
+import model.MazeWalls;
+
+/**
+ * Server without GUI: no JavaFX toolkit is loaded, events go to a log file.
+ *
+ * Usage: HeadlessServer [--port 4434] [--max-clients 3] [--engine threads|virtual_threads|nio] [--log file|-]
+ *                       [--metrics-port port] [--mode classic|endless|tournament] [--size 100x100]
+ *                       [--seed n] [--maze-pool 16]
+ *                       [--maze-file file]
+ *
+ * --maze-pool is the number of mazes of each size generated in advance, 0 - none.
+ * --maze-file is a maze written by MazeFile, mapped into memory and walked by all players.
+ * In endless mode all players walk one endless maze, the same for the same --seed.
+ * In tournament mode all players walk one maze of --size rows x columns.
+ * Metrics are always registered as a JMX MBean, --metrics-port also serves them as text.
+ */
+public class HeadlessServer implements ServerListener {
+    public static final String defaultLogFile = "maze-server.log";
+
+    private LogPipeline log;
+    private AtomicInteger lastNumClients = new AtomicInteger(-1);
+
+    /**
+     * @param logFile   file name, "-" for standard output
+     * @throws IOException  if the file cannot be opened
+     */
+    public HeadlessServer(String logFile) throws IOException {
+        log = new LogPipeline(null, logFile);
+    }
+
+    /**
+     * Queues a time stamped line for the log file
+     *
+     * @param text
+     */
+    @Override
+    public void appendLog(String text) {
+        log.append(text);
+    }
+
+    /**
+     * Logs the number of clients when it changes
+     *
+     * @param clients
+     * @param statuses
+     */
+    @Override
+    public void refreshClients(List<String> clients, List<String> statuses) {
+        if (lastNumClients.getAndSet(clients.size()) != clients.size()) {
+            appendLog("Clients connected: " + clients.size());
+        }
+    }
+
+    public void close() {
+        log.close();
+    }
+
+    public static void main(String[] args) {
+        String port = "" + ServerController.defaultPort;
+        String maxClients = "" + ServerController.defaultNumClients;
+        ServerController.Engine engine = ServerController.Engine.THREADS;
+        String logFile = defaultLogFile;
+        int metricsPort = -1;
+        String mode = "classic";
+        int[] size = {100, 100};
+        long seed = new Random().nextLong();
+        int mazePool = MazePool.DEFAULT_WATERMARK;
+        String mazeFile = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--help") || arg.equals("-h")) {
+                    usage();
+                    return;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--port":
+                        port = value;
+                        break;
+                    case "--max-clients":
+                        maxClients = value;
+                        break;
+                    case "--engine":
+                        engine = ServerController.Engine.valueOf(value.toUpperCase());
+                        break;
+                    case "--log":
+                        logFile = value;
+                        break;
+                    case "--metrics-port":
+                        metricsPort = Integer.parseInt(value);
+                        break;
+                    case "--mode":
+                        if (!value.equals("classic") && !value.equals("endless") && !value.equals("tournament")) {
+                            throw new IllegalArgumentException("Unknown mode " + value);
+                        }
+                        mode = value;
+                        break;
+                    case "--size":
+                        String[] rowsCols = value.split("x");
+                        if (rowsCols.length != 2) {
+                            throw new IllegalArgumentException("Size is rows x columns, ex: 100x100");
+                        }
+                        size = new int[] {Integer.parseInt(rowsCols[0]), Integer.parseInt(rowsCols[1])};
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    case "--maze-pool":
+                        mazePool = Integer.parseInt(value);
+                        break;
+                    case "--maze-file":
+                        mazeFile = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(2);
+        }
+
+        HeadlessServer listener;
+        try {
+            listener = new HeadlessServer(logFile);
+        } catch (IOException e) {
+            System.err.println("Cannot open log file " + logFile + ": " + e);
+            System.exit(1);
+            return;
+        }
+
+        ServerController controller = new ServerController(listener);
+        controller.setMazePoolSize(mazePool);
+        if (mazeFile != null) {
+            try {
+                MappedMaze maze = MazeFile.open(Paths.get(mazeFile));
+                listener.appendLog("Maze " + mazeFile + ": " + maze.getNumRows() + " x " + maze.getNumCols()
+                        + ", seed " + maze.getSeed());
+                searchDistances(maze, listener);
+                controller.setSharedMaze(maze);
+            } catch (IOException e) {
+                System.err.println("Cannot open maze file " + mazeFile + ": " + e);
+                listener.close();
+                System.exit(1);
+            }
+        }
+        if (mode.equals("endless")) {
+            controller.setEndlessMaze(new ChunkedMaze(seed));
+            listener.appendLog("Endless maze, seed " + seed);
+        }
+        if (mode.equals("tournament")) {
+            Maze maze;
+            try {
+                maze = new Maze(size[0], size[1], seed);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                listener.close();
+                System.exit(2);
+                return;
+            }
+            listener.appendLog("Tournament maze " + size[0] + " x " + size[1] + ", seed " + seed);
+            searchDistances(maze, listener);
+            controller.setSharedMaze(maze);
+        }
+        if (!controller.startServer(port, maxClients, engine)) {
+            listener.close();
+            System.exit(1);
+        }
+        if (metricsPort >= 0 && !controller.startMetricsEndpoint(metricsPort)) {
+            controller.closeThread();
+            listener.close();
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            listener.appendLog("Shutting down.");
+            controller.disconnectAllClients();
+            controller.closeThread();
+            listener.close();
+        }));
+    }
+
+    /**
+     * Distances to the exit before the first player comes. A maze too large to be searched is played
+     * without hints and scores.
+     */
+    private static void searchDistances(MazeWalls maze, HeadlessServer listener) {
+        long start = System.nanoTime();
+        DistanceField distances;
+        try {
+            distances = maze.getDistances();
+        } catch (RuntimeException e) {
+            distances = null;
+            listener.appendLog("Distances to the exit not searched: " + e);
+        }
+        if (distances == null) {
+            listener.appendLog("Maze " + maze.getNumRows() + " x " + maze.getNumCols()
+                    + " is too large to search the distances to the exit, no hints and scores");
+        } else {
+            listener.appendLog(String.format("Distances to the exit searched in %.1f ms", (System.nanoTime() - start) / 1e6));
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: HeadlessServer [--port " + ServerController.defaultPort + "]"
+                + " [--max-clients " + ServerController.defaultNumClients + "]"
+                + " [--engine threads|virtual_threads|nio] [--log file|-] [--metrics-port port]"
+                + " [--mode classic|endless|tournament] [--size 100x100] [--seed n] [--maze-pool " + MazePool.DEFAULT_WATERMARK + "]"
+                + " [--maze-file file]");
+    }
+}
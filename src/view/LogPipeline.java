@@ -0,0 +1,154 @@
+package view;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous log: appendLog only puts the line into a LogRingBuffer.
+ *
+ * One background thread drains the buffer in batches, at most FRAMES_PER_SECOND times a second.
+ * Each batch is written to the log file (if any) and handed to the sink (if any), ex: a TextAreaLogSink.
+ * Does not depend on JavaFX, so the headless server can use it.
+ */
+public class LogPipeline {
+    private static final int CAPACITY = 16 * 1024;     //lines waiting for the consumer
+    private static final int FRAMES_PER_SECOND = 20;
+
+    private LogRingBuffer<Entry> buffer = new LogRingBuffer<>(CAPACITY);
+    private Sink sink;
+    private Writer file;
+    private SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * Receives the batches of lines
+     */
+    public interface Sink {
+        /**
+         * Called on the pipeline's thread, must not block
+         *
+         * @param batch     lines, each ending with a new line; not used after the call
+         */
+        void show(CharSequence batch);
+    }
+
+    /**
+     * Starts the consumer thread
+     *
+     * @param sink      receives the batches, null for none
+     * @param logFile   file name, "-" for standard output, null for none
+     * @throws IOException  if the file cannot be opened
+     */
+    public LogPipeline(Sink sink, String logFile) throws IOException {
+        this.sink = sink;
+        if (logFile != null) {
+            file = new BufferedWriter(new OutputStreamWriter(
+                    logFile.equals("-") ? System.out : new FileOutputStream(logFile, true), StandardCharsets.UTF_8));
+        }
+        startThread();
+    }
+
+    /**
+     * Starts the consumer thread
+     *
+     * @param sink  receives the batches
+     */
+    public LogPipeline(Sink sink) {
+        this.sink = sink;
+        startThread();
+    }
+
+    private void startThread() {
+        thread = new Thread(this::drainLoop, "LogPipeline");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues one line. Never blocks, may be called from any thread.
+     *
+     * @param text  line
+     */
+    public void append(String text) {
+        buffer.offer(new Entry(System.currentTimeMillis(), text));
+    }
+
+    /**
+     * Writes what is queued and stops the consumer thread
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        long frame = TimeUnit.SECONDS.toNanos(1) / FRAMES_PER_SECOND;
+        while (running) {
+            drain();
+            LockSupport.parkNanos(frame);
+        }
+        drain();
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignore) {}
+        }
+    }
+
+    private void drain() {
+        StringBuilder batch = sink != null ? new StringBuilder() : null;   //only built for a sink
+        long dropped = buffer.takeDropped();
+        if (dropped > 0 && batch != null) {
+            batch.append("... ").append(dropped).append(" log lines dropped\n");
+        }
+        boolean written = false;
+        Entry entry;
+        while ((entry = buffer.poll()) != null) {
+            if (file != null) {
+                try {
+                    file.write(timeFormat.format(new Date(entry.time)));
+                    file.write(' ');
+                    file.write(entry.text);
+                    file.write('\n');
+                    written = true;
+                } catch (IOException ignore) {}
+            }
+            if (batch != null) {
+                batch.append(entry.text).append('\n');
+            }
+        }
+        if (written) {
+            try {
+                file.flush();
+            } catch (IOException ignore) {}
+        }
+        if (batch != null) {
+            sink.show(batch);
+        }
+    }
+
+    private static class Entry {
+        long time;
+        String text;
+
+        Entry(long time, String text) {
+            this.time = time;
+            this.text = text;
+        }
+    }
+}
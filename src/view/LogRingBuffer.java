@@ -0,0 +1,71 @@
+package view;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue of log events: many producers, one consumer.
+ *
+ * Producers claim a slot with a CAS on the tail and never block. When the buffer
+ * is full the event is dropped and counted, so logging cannot slow the server down.
+ *
+ * @param <T>   event type
+ */
+public class LogRingBuffer<T> {
+    private AtomicReferenceArray<T> slots;
+    private int mask;
+    private AtomicLong tail = new AtomicLong();    //next slot to claim
+    private volatile long head;                    //next slot to read, written by the consumer only
+    private AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity  rounded up to a power of two
+     */
+    public LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an event. May be called from any thread.
+     *
+     * @param event     not null
+     * @return          false if the buffer was full and the event was dropped
+     */
+    public boolean offer(T event) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head > mask) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        slots.set((int) t & mask, event);
+        return true;
+    }
+
+    /**
+     * Takes the next event. Consumer thread only.
+     *
+     * @return  event, null if there is none yet
+     */
+    public T poll() {
+        long h = head;
+        int index = (int) h & mask;
+        T event = slots.get(index);
+        if (event != null) {   //null also when a producer has claimed the slot but not written it yet
+            slots.lazySet(index, null);
+            head = h + 1;
+        }
+        return event;
+    }
+
+    /**
+     * @return  events dropped since the last call
+     */
+    public long takeDropped() {
+        return dropped.getAndSet(0);
+    }
+}
@@ -0,0 +1,243 @@
+package view;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
+import javafx.scene.paint.Color;
+import model.ClientGameDriver;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Off-screen pictures of the explored map, in square tiles of tileCells x tileCells cells.
+ *
+ * A tile is drawn from the map once, then only the cells that change are drawn again into it;
+ * the canvas gets tiles copied onto it, so scrolling copies pictures instead of drawing walls.
+ * Tiles where nothing is known share one blank picture. Tiles of the cells explored lately are kept,
+ * least recently used first out; a tile that was dropped is drawn from the map again when it is shown.
+ *
+ * Used on the FX thread; the map is read under the controller's map lock.
+ */
+class MazeTiles {
+    private static final int TILE_PIXELS = 96;  //about, side of a tile
+    private static final WritablePixelFormat<IntBuffer> FORMAT = PixelFormat.getIntArgbInstance();
+
+    private final int wCell;        //pixels per cell, the wall above and left of a cell are its first row and column
+    private final int tileCells;
+    private final int tilePixels;
+    private final int capacity;
+    private final Map<Long, WritableImage> tiles;
+    private final Set<Long> known = new HashSet<>();    //tiles with anything explored
+    private final WritableImage blank;
+
+    private final int[][] walls;        //a row of wCell pixels per wall state
+    private final int[] unknownFill;    //inside of a cell
+    private final int[] visitedFill;
+    private final int wallCorner;
+
+    private ClientGameDriver map;
+    private long[] changed = new long[16];  //tiles to copy onto the canvas with the next draw
+    private int numChanged;
+
+    /**
+     * @param wCell         pixels per cell, at least 2
+     * @param capacity      tiles kept
+     * @param wallColors    wall colors by state: UNKNOWN, OPEN, WALL
+     * @param cellUnknown   color of cells not visited
+     * @param cellVisited   color of visited cells
+     */
+    MazeTiles(int wCell, int capacity, Color[] wallColors, Color cellUnknown, Color cellVisited) {
+        this.wCell = wCell;
+        this.capacity = capacity;
+        tileCells = Math.max(1, TILE_PIXELS / wCell);
+        tilePixels = tileCells * wCell;
+        tiles = new LinkedHashMap<Long, WritableImage>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, WritableImage> eldest) {
+                return size() > MazeTiles.this.capacity;
+            }
+        };
+
+        walls = new int[wallColors.length][wCell];
+        for (int state = 0; state < wallColors.length; state++) {
+            Arrays.fill(walls[state], argb(wallColors[state]));
+        }
+        wallCorner = argb(wallColors[ClientGameDriver.WALL]);
+        unknownFill = new int[(wCell - 1) * (wCell - 1)];
+        Arrays.fill(unknownFill, argb(cellUnknown));
+        visitedFill = new int[unknownFill.length];
+        Arrays.fill(visitedFill, argb(cellVisited));
+
+        blank = new WritableImage(tilePixels, tilePixels);
+        PixelWriter writer = blank.getPixelWriter();
+        for (int r = 0; r < tileCells; r++) {
+            for (int c = 0; c < tileCells; c++) {
+                paintCell(writer, c * wCell, r * wCell, ClientGameDriver.UNKNOWN, ClientGameDriver.UNKNOWN, false);
+            }
+        }
+    }
+
+    static int argb(Color color) {
+        return (int) Math.round(color.getOpacity() * 255) << 24
+                | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8
+                | (int) Math.round(color.getBlue() * 255);
+    }
+
+    /**
+     * Drops all tiles if this is another map, ex: a new game
+     *
+     * @param map   map to draw, null - nothing is known
+     * @return      true if the map is another one
+     */
+    boolean setMap(ClientGameDriver map) {
+        if (map == this.map) {
+            return false;
+        }
+        this.map = map;
+        clear();
+        return true;
+    }
+
+    /**
+     * Drops all tiles, they are drawn from the map again. Costs every explored cell.
+     */
+    void clear() {
+        tiles.clear();
+        known.clear();
+        numChanged = 0;
+        if (map != null) {
+            for (long corner : map.getChunkCorners()) {
+                int firstRow = (int) (corner >> 32);
+                int firstCol = (int) corner;
+                for (int r = firstRow; r < firstRow + ClientGameDriver.CHUNK_SIZE; r++) {
+                    for (int c = firstCol; c < firstCol + ClientGameDriver.CHUNK_SIZE; c++) {
+                        known.add(key(r, c));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A cell or the walls above and left of it changed in the map: draws it into its tile if the tile is kept
+     *
+     * @param r     map row
+     * @param c     map column
+     */
+    void cellChanged(int r, int c) {
+        long key = key(r, c);
+        known.add(key);
+        WritableImage tile = tiles.get(key);
+        if (tile != null) {
+            paintCell(tile.getPixelWriter(), r, c);
+        }
+        invalidate(r, c);
+    }
+
+    /**
+     * The tile of the cell is copied onto the canvas with the next draw, ex: to wipe the ball off
+     */
+    void invalidate(int r, int c) {
+        long key = key(r, c);
+        for (int i = 0; i < numChanged; i++) {
+            if (changed[i] == key) {
+                return;
+            }
+        }
+        if (numChanged == changed.length) {
+            changed = Arrays.copyOf(changed, numChanged * 2);
+        }
+        changed[numChanged++] = key;
+    }
+
+    /**
+     * Copies tiles onto the canvas
+     *
+     * @param g     canvas
+     * @param top   map row of the first row of the canvas
+     * @param left  map column of the first column
+     * @param rows  rows on the canvas; the wall below them is drawn too
+     * @param cols  columns on the canvas
+     * @param all   all the tiles, ex: after scrolling; otherwise only the changed ones
+     */
+    void draw(GraphicsContext g, int top, int left, int rows, int cols, boolean all) {
+        int firstRow = Math.floorDiv(top, tileCells);
+        int lastRow = Math.floorDiv(top + rows, tileCells);
+        int firstCol = Math.floorDiv(left, tileCells);
+        int lastCol = Math.floorDiv(left + cols, tileCells);
+        if (all) {
+            for (int tr = firstRow; tr <= lastRow; tr++) {
+                for (int tc = firstCol; tc <= lastCol; tc++) {
+                    drawTile(g, tr, tc, top, left);
+                }
+            }
+        } else {
+            for (int i = 0; i < numChanged; i++) {
+                int tr = (int) (changed[i] >> 32);
+                int tc = (int) changed[i];
+                if (tr >= firstRow && tr <= lastRow && tc >= firstCol && tc <= lastCol) {
+                    drawTile(g, tr, tc, top, left);
+                }
+            }
+        }
+        numChanged = 0;
+    }
+
+    private void drawTile(GraphicsContext g, int tr, int tc, int top, int left) {
+        g.drawImage(getTile(tr, tc), (tc * tileCells - left) * wCell, (tr * tileCells - top) * wCell);
+    }
+
+    /**
+     * Kept tile, drawn from the map if it is not kept
+     */
+    private WritableImage getTile(int tr, int tc) {
+        Long key = (long) tr << 32 | (tc & 0xffffffffL);
+        if (map == null || !known.contains(key)) {
+            return blank;
+        }
+        WritableImage tile = tiles.get(key);
+        if (tile == null) {
+            tile = new WritableImage(tilePixels, tilePixels);
+            PixelWriter writer = tile.getPixelWriter();
+            for (int r = tr * tileCells; r < (tr + 1) * tileCells; r++) {
+                for (int c = tc * tileCells; c < (tc + 1) * tileCells; c++) {
+                    paintCell(writer, r, c);
+                }
+            }
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    private void paintCell(PixelWriter writer, int r, int c) {
+        paintCell(writer, Math.floorMod(c, tileCells) * wCell, Math.floorMod(r, tileCells) * wCell,
+                map.getHWallState(r, c), map.getVWallState(r, c), map.isCellVisited(r, c));
+    }
+
+    /**
+     * Draws a cell with the walls above and left of it
+     *
+     * @param x     left pixel of the cell in the tile
+     * @param y     top pixel
+     */
+    private void paintCell(PixelWriter writer, int x, int y, int hWall, int vWall, boolean visited) {
+        writer.setPixels(x, y, wCell, 1, FORMAT, walls[hWall], 0, wCell);
+        writer.setPixels(x, y, 1, wCell, FORMAT, walls[vWall], 0, 1);
+        if (hWall == ClientGameDriver.WALL || vWall == ClientGameDriver.WALL) {
+            writer.setArgb(x, y, wallCorner);
+        }
+        writer.setPixels(x + 1, y + 1, wCell - 1, wCell - 1, FORMAT, visited ? visitedFill : unknownFill, 0, wCell - 1);
+    }
+
+    private long key(int r, int c) {
+        return (long) Math.floorDiv(r, tileCells) << 32 | (Math.floorDiv(c, tileCells) & 0xffffffffL);
+    }
+}
@@ -0,0 +1,351 @@
+package view;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
+import javafx.scene.paint.Color;
+import model.ClientGameDriver;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Small picture of everything explored: visited cells, and cells with a known wall around them.
+ *
+ * The picture is made of tiles of TILE_UNITS x TILE_UNITS units, each with its image. A unit is one cell
+ * drawn as a square of up to MAX_CELL_PIXELS pixels while the explored area is small, or a square
+ * of 2^level x 2^level cells drawn as one pixel when it is large. Cells only become more known,
+ * so a unit shows the most known of its cells and a change costs one unit, whatever the level.
+ * When the explored area outgrows the panel the level goes up and the tiles are halved into new ones,
+ * their number stays about the number that covers the panel.
+ *
+ * Used on the FX thread; the map is read under the controller's map lock.
+ */
+class MiniMap {
+    private static final int TILE_UNITS = 64;
+    private static final int MAX_CELL_PIXELS = 4;
+    private static final int MIN_LEVEL = -2;    //2^-level pixels per cell, MAX_CELL_PIXELS
+    private static final int MAX_LEVEL = 30;
+    private static final byte SEEN = 1;     //cell states, a unit has the highest state of its cells
+    private static final byte VISITED = 2;
+    private static final WritablePixelFormat<IntBuffer> FORMAT = PixelFormat.getIntArgbInstance();
+
+    private final int size;     //panel side, pixels
+    private final Color background;
+    private final int[] colors; //by state
+    private final Map<Long, Tile> tiles = new HashMap<>();
+    private int[][] blocks;     //square of pixels of a unit, by state
+
+    private ClientGameDriver map;
+    private int level = MIN_LEVEL;
+    private boolean empty = true;   //explored area, cells
+    private int minRow;
+    private int maxRow;
+    private int minCol;
+    private int maxCol;
+    private int originRow;      //unit in the top left corner of the panel
+    private int originCol;
+    private boolean moved = true;   //level or origin changed, the whole panel is drawn
+    private long[] changed = new long[16];  //tiles to copy onto the panel with the next draw
+    private int numChanged;
+    private int markerRow;      //unit of the player drawn last
+    private int markerCol;
+    private int markerX;        //square of the marker on the panel
+    private int markerY;
+    private int markerSide;     //0 - no marker drawn
+
+    private static class Tile {
+        final byte[] states = new byte[TILE_UNITS * TILE_UNITS];
+        WritableImage image;
+    }
+
+    /**
+     * @param size      panel side, pixels
+     * @param unknown   color of the unexplored area
+     * @param seen      color of cells with a known wall, not visited
+     * @param visited   color of visited cells
+     */
+    MiniMap(int size, Color unknown, Color seen, Color visited) {
+        this.size = size;
+        background = unknown;
+        colors = new int[] {MazeTiles.argb(unknown), MazeTiles.argb(seen), MazeTiles.argb(visited)};
+        setBlocks();
+    }
+
+    /**
+     * Starts over if this is another map, ex: a new game
+     *
+     * @param map   map to draw, null - nothing is known
+     * @return      true if the map is another one
+     */
+    boolean setMap(ClientGameDriver map) {
+        if (map == this.map) {
+            return false;
+        }
+        this.map = map;
+        tiles.clear();
+        empty = true;
+        level = MIN_LEVEL;
+        setBlocks();
+        moved = true;
+        numChanged = 0;
+        if (map != null) {
+            cellChanged(map.getCurrentRow(), map.getCurrentCol());  //the start cell is visited
+        }
+        return true;
+    }
+
+    /**
+     * A cell or the walls above and left of it changed in the map
+     *
+     * @param r     map row
+     * @param c     map column
+     */
+    void cellChanged(int r, int c) {
+        if (map == null) {
+            return;
+        }
+        byte state;
+        if (map.isCellVisited(r, c)) {
+            state = VISITED;
+        } else if (map.getHWallState(r, c) != ClientGameDriver.UNKNOWN || map.getVWallState(r, c) != ClientGameDriver.UNKNOWN) {
+            state = SEEN;
+        } else {
+            return;
+        }
+
+        if (empty) {
+            minRow = maxRow = r;
+            minCol = maxCol = c;
+            empty = false;
+            center();
+        } else if (r < minRow || r > maxRow || c < minCol || c > maxCol) {
+            minRow = Math.min(minRow, r);
+            maxRow = Math.max(maxRow, r);
+            minCol = Math.min(minCol, c);
+            maxCol = Math.max(maxCol, c);
+            while (!fits() && level < MAX_LEVEL) {
+                levelUp();
+            }
+            if (!isShown()) {
+                center();
+            }
+        }
+        setState(unit(r), unit(c), state);
+    }
+
+    /**
+     * Reads the whole map again, ex: when changes were lost. Costs every explored cell.
+     */
+    void rebuild() {
+        if (map == null) {
+            return;
+        }
+        for (long corner : map.getChunkCorners()) {
+            int firstRow = (int) (corner >> 32);
+            int firstCol = (int) corner;
+            for (int r = firstRow; r < firstRow + ClientGameDriver.CHUNK_SIZE; r++) {
+                for (int c = firstCol; c < firstCol + ClientGameDriver.CHUNK_SIZE; c++) {
+                    cellChanged(r, c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the changed tiles onto the panel, all of them if the level or the origin changed
+     *
+     * @param g         panel
+     * @param r         map row of the player
+     * @param c         map column of the player
+     * @param player    color of the player
+     */
+    void draw(GraphicsContext g, int r, int c, Color player) {
+        if (!moved) {
+            wipeMarker(g);
+        }
+        if (moved) {
+            g.setFill(background);
+            g.fillRect(0, 0, size, size);
+            int tilePixels = TILE_UNITS * pixels();
+            for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+                int tr = (int) (entry.getKey() >> 32);
+                int tc = (int) (long) entry.getKey();
+                int x = (tc * TILE_UNITS - originCol) * pixels();
+                int y = (tr * TILE_UNITS - originRow) * pixels();
+                if (x < size && y < size && x + tilePixels > 0 && y + tilePixels > 0) {
+                    g.drawImage(entry.getValue().image, x, y);
+                }
+            }
+        } else {
+            for (int i = 0; i < numChanged; i++) {
+                Tile tile = tiles.get(changed[i]);
+                if (tile != null) {
+                    int tr = (int) (changed[i] >> 32);
+                    int tc = (int) changed[i];
+                    g.drawImage(tile.image, (tc * TILE_UNITS - originCol) * pixels(), (tr * TILE_UNITS - originRow) * pixels());
+                }
+            }
+        }
+        moved = false;
+        numChanged = 0;
+
+        markerSide = 0;
+        if (map != null) {
+            markerRow = unit(r);
+            markerCol = unit(c);
+            markerSide = Math.max(3, pixels());
+            int offset = (markerSide - pixels()) / 2;
+            markerX = (markerCol - originCol) * pixels() - offset;
+            markerY = (markerRow - originRow) * pixels() - offset;
+            g.setFill(player);
+            g.fillRect(markerX, markerY, markerSide, markerSide);
+        }
+    }
+
+    /**
+     * The marker of the player covers its unit and at most the units around. It is filled with the background,
+     * where no tile is copied over it, and the tiles of these units are copied again.
+     */
+    private void wipeMarker(GraphicsContext g) {
+        if (markerSide == 0) {
+            return;
+        }
+        g.setFill(background);
+        g.fillRect(markerX, markerY, markerSide, markerSide);
+        for (int dr = -1; dr <= 1; dr++) {
+            for (int dc = -1; dc <= 1; dc++) {
+                invalidate(tileKey(markerRow + dr, markerCol + dc));
+            }
+        }
+    }
+
+    private int pixels() {
+        return level < 0 ? 1 << -level : 1;
+    }
+
+    private int unit(int cell) {
+        return level > 0 ? cell >> level : cell;
+    }
+
+    private int panelUnits() {
+        return size / pixels();
+    }
+
+    private boolean fits() {
+        return unit(maxRow) - unit(minRow) < panelUnits() && unit(maxCol) - unit(minCol) < panelUnits();
+    }
+
+    private boolean isShown() {
+        return unit(minRow) >= originRow && unit(maxRow) < originRow + panelUnits()
+                && unit(minCol) >= originCol && unit(maxCol) < originCol + panelUnits();
+    }
+
+    private void center() {
+        originRow = (unit(minRow) + unit(maxRow)) / 2 - panelUnits() / 2;
+        originCol = (unit(minCol) + unit(maxCol)) / 2 - panelUnits() / 2;
+        moved = true;
+    }
+
+    /**
+     * Doubles the cells per pixel: while cells are larger than a pixel only the images are drawn again,
+     * after that every 2 x 2 units become one
+     */
+    private void levelUp() {
+        level++;
+        setBlocks();
+        if (level > 0) {
+            Map<Long, Tile> old = new HashMap<>(tiles);
+            tiles.clear();
+            for (Map.Entry<Long, Tile> entry : old.entrySet()) {
+                int firstRow = (int) (entry.getKey() >> 32) * TILE_UNITS;
+                int firstCol = (int) (long) entry.getKey() * TILE_UNITS;
+                byte[] states = entry.getValue().states;
+                for (int i = 0; i < states.length; i++) {
+                    if (states[i] != 0) {
+                        mergeState((firstRow + i / TILE_UNITS) >> 1, (firstCol + i % TILE_UNITS) >> 1, states[i]);
+                    }
+                }
+            }
+        }
+        for (Tile tile : tiles.values()) {
+            paintTile(tile);
+        }
+        center();
+        numChanged = 0;
+    }
+
+    /**
+     * Raises the state of a unit, draws it if it changed
+     */
+    private void setState(int ur, int uc, byte state) {
+        long key = tileKey(ur, uc);
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            tile = new Tile();
+            paintTile(tile);
+            tiles.put(key, tile);
+        }
+        int i = Math.floorMod(ur, TILE_UNITS) * TILE_UNITS + Math.floorMod(uc, TILE_UNITS);
+        if (tile.states[i] >= state) {
+            return;
+        }
+        tile.states[i] = state;
+        int side = pixels();
+        tile.image.getPixelWriter().setPixels(i % TILE_UNITS * side, i / TILE_UNITS * side, side, side,
+                FORMAT, blocks[state], 0, side);
+        invalidate(key);
+    }
+
+    /**
+     * Raises the state of a unit while the tiles are rebuilt, not drawn
+     */
+    private void mergeState(int ur, int uc, byte state) {
+        long key = tileKey(ur, uc);
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            tile = new Tile();
+            tiles.put(key, tile);
+        }
+        int i = Math.floorMod(ur, TILE_UNITS) * TILE_UNITS + Math.floorMod(uc, TILE_UNITS);
+        if (tile.states[i] < state) {
+            tile.states[i] = state;
+        }
+    }
+
+    private void paintTile(Tile tile) {
+        int side = pixels();
+        tile.image = new WritableImage(TILE_UNITS * side, TILE_UNITS * side);
+        for (int i = 0; i < tile.states.length; i++) {
+            tile.image.getPixelWriter().setPixels(i % TILE_UNITS * side, i / TILE_UNITS * side, side, side,
+                    FORMAT, blocks[tile.states[i]], 0, side);
+        }
+    }
+
+    private void setBlocks() {
+        int side = pixels();
+        blocks = new int[colors.length][side * side];
+        for (int state = 0; state < colors.length; state++) {
+            Arrays.fill(blocks[state], colors[state]);
+        }
+    }
+
+    private static long tileKey(int ur, int uc) {
+        return (long) Math.floorDiv(ur, TILE_UNITS) << 32 | (Math.floorDiv(uc, TILE_UNITS) & 0xffffffffL);
+    }
+
+    private void invalidate(long key) {
+        for (int i = 0; i < numChanged; i++) {
+            if (changed[i] == key) {
+                return;
+            }
+        }
+        if (numChanged == changed.length) {
+            changed = Arrays.copyOf(changed, numChanged * 2);
+        }
+        changed[numChanged++] = key;
+    }
+}
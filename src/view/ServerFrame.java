@@ -14,8 +14,14 @@ import javafx.scene.text.Text;
 import javafx.stage.Stage;
 
 import controller.ServerController;
+import controller.ServerListener;
+import model.ChunkedMaze;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by Vadim Shutenko on 20-Aug-18.
@@ -25,21 +31,27 @@ import java.util.List;
  * Server Gui
  */
 
-public class ServerFrame extends Application {
+public class ServerFrame extends Application implements ServerListener {
 
     private ServerController controller = new ServerController(this);
 
     private TextArea log = new TextArea();
+    private volatile LogPipeline logPipeline;
     private Button startButton = new Button("Start Server");
     private Button stopButton = new Button("Stop Server");
     private Button disconnectButton = new Button("Disconnect Chosen Client");
     private TextField port = new TextField("" + ServerController.defaultPort);
-    private TextField maxClients = new TextField("" + ServerController.maxNumClients);
+    private TextField maxClients = new TextField("" + ServerController.defaultNumClients);
+    private ChoiceBox<ServerController.Engine> engine =
+            new ChoiceBox<>(FXCollections.observableArrayList(ServerController.Engine.values()));
+    private CheckBox endless = new CheckBox("Endless maze");
 
     private ListView<String> clientsListView = new ListView<>(FXCollections.observableArrayList());
     private ListView<String> clientsStatusView = new ListView<>(FXCollections.observableArrayList());
+    private AtomicReference<List<List<String>>> pendingClients = new AtomicReference<>();  //not shown yet
 
     public void start(Stage stage) {
+        openLog();
 
         GridPane gridPane = new GridPane();
         gridPane.setPadding(new Insets(5, 5, 5, 5));
@@ -54,6 +66,8 @@ public class ServerFrame extends Application {
 
         gridPane.add(startButton, 0, 0, 1, 1);
         gridPane.add(stopButton, 0, 1, 1, 1);
+        gridPane.add(engine, 1, 0, 1, 1);
+        gridPane.add(endless, 1, 1, 1, 1);
 
         gridPane.add(clientsListView, 0, 2, 2, 1);
         gridPane.add(clientsStatusView, 2, 2, 2, 1);
@@ -95,6 +109,8 @@ public class ServerFrame extends Application {
      * adds listeners to controls
      */
     private void addListeners() {
+        engine.setValue(ServerController.Engine.THREADS);
+
         port.textProperty().addListener((ObservableValue<? extends String> observable, String oldValue, String newValue) -> {
             if (!newValue.matches("\\d*")) {
                 port.setText(oldValue);
@@ -122,9 +138,12 @@ public class ServerFrame extends Application {
         startButton.setOnAction(e -> {
             port.setText("" + controller.checkPort(port.getText()));
             maxClients.setText("" + controller.checkMaxClients(maxClients.getText()));
-            if (controller.startServer(port.getText(), maxClients.getText())) {
+            controller.setEndlessMaze(endless.isSelected() ? new ChunkedMaze(new Random().nextLong()) : null);
+            if (controller.startServer(port.getText(), maxClients.getText(), engine.getValue())) {
                 startButton.setDisable(true);
                 stopButton.setDisable(false);
+                engine.setDisable(true);
+                endless.setDisable(true);
             }
         });
 
@@ -145,33 +164,67 @@ public class ServerFrame extends Application {
     @Override
     public void stop() {
         stopServer();
+        logPipeline.close();
+    }
+
+    /**
+     * Starts the log, also written to a file if the application was launched with --log=file
+     */
+    private void openLog() {
+        String logFile = getParameters().getNamed().get("log");
+        try {
+            logPipeline = new LogPipeline(new TextAreaLogSink(log), logFile);
+        } catch (IOException e) {
+            logPipeline = new LogPipeline(new TextAreaLogSink(log));
+            appendLog("Can not open log file " + logFile + ": " + e);
+        }
     }
 
     /**
-     * Appends text log window
+     * Appends text log window. Does not block, the text is shown with the next batch.
      *
      * @param text
      */
-    public synchronized void appendLog(String text) {
-        Platform.runLater(() -> {
-            log.appendText(text);
-            log.appendText("\n");
-        });
+    @Override
+    public void appendLog(String text) {
+        LogPipeline pipeline = logPipeline;
+        if (pipeline != null) {
+            pipeline.append(text);
+        }
     }
 
     /**
-     * Refreshes clients list
+     * Refreshes clients list. Lists that arrive before the FX thread shows
+     * the previous ones replace them, only the latest lists are shown.
      *
      * @param clients
      * @param statuses
      */
-    public synchronized void refreshClients(List<String> clients, List<String> statuses) {
-        Platform.runLater(() -> {
-            clientsListView.getItems().clear();
-            clientsStatusView.getItems().clear();
-            clientsListView.getItems().addAll(clients);
-            clientsStatusView.getItems().addAll(statuses);
-        });
+    @Override
+    public void refreshClients(List<String> clients, List<String> statuses) {
+        if (pendingClients.getAndSet(Arrays.asList(clients, statuses)) == null) {
+            Platform.runLater(() -> {
+                List<List<String>> lists = pendingClients.getAndSet(null);
+                update(clientsListView.getItems(), lists.get(0));
+                update(clientsStatusView.getItems(), lists.get(1));
+            });
+        }
+    }
+
+    /**
+     * Changes only the rows that differ, so the selection and scroll position survive
+     */
+    private static void update(List<String> items, List<String> values) {
+        for (int i = 0; i < values.size() && i < items.size(); i++) {
+            if (!items.get(i).equals(values.get(i))) {
+                items.set(i, values.get(i));
+            }
+        }
+        if (items.size() > values.size()) {
+            items.subList(values.size(), items.size()).clear();
+        } else if (items.size() < values.size()) {
+            items.addAll(values.subList(items.size(), values.size()));
+        }
     }
 
     /**
@@ -180,8 +233,11 @@ public class ServerFrame extends Application {
     private void stopServer() {
         startButton.setDisable(false);
         stopButton.setDisable(true);
+        engine.setDisable(false);
+        endless.setDisable(false);
         if (controller != null) {
             controller.disconnectAllClients();
+            controller.closeThread();
         }
     }
 
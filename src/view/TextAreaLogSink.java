@@ -0,0 +1,47 @@
+package view;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.application.Platform;
+import javafx.scene.control.TextArea;
+
+/**
+ * Shows the batches of a LogPipeline in a text area.
+ *
+ * Each batch is handed to the FX thread as a single appendText, one update at a time:
+ * batches that arrive meanwhile are joined. The text area keeps only the last MAX_CHARS characters.
+ */
+class TextAreaLogSink implements LogPipeline.Sink {
+    private static final int MAX_CHARS = 100 * 1024;   //scrollback
+
+    private final TextArea area;
+    private final StringBuilder uiText = new StringBuilder();   //drained, not shown yet
+    private final AtomicBoolean uiBusy = new AtomicBoolean();   //an update is queued on the FX thread
+
+    TextAreaLogSink(TextArea area) {
+        this.area = area;
+    }
+
+    @Override
+    public void show(CharSequence batch) {
+        uiText.append(batch);
+        if (uiText.length() > MAX_CHARS) {   //would be cut from the text area anyway
+            int cut = uiText.indexOf("\n", uiText.length() - MAX_CHARS);
+            uiText.delete(0, cut < 0 ? uiText.length() - MAX_CHARS : cut + 1);
+        }
+        if (uiText.length() == 0 || !uiBusy.compareAndSet(false, true)) {
+            return;
+        }
+        String text = uiText.toString();
+        uiText.setLength(0);
+        Platform.runLater(() -> {
+            area.appendText(text);
+            int excess = area.getLength() - MAX_CHARS;
+            if (excess > 0) {
+                int cut = area.getText().indexOf('\n', excess);
+                area.deleteText(0, cut < 0 ? excess : cut + 1);
+            }
+            uiBusy.set(false);
+        });
+    }
+}